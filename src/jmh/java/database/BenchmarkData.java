@@ -0,0 +1,55 @@
+package database;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Builds the tables the benchmarks run on. Rows are generated from their position, so the same
+// parameters always give the same data:
+//
+//   id     INT    unique, 0 to rows - 1
+//   name   STR    one of cardinality values, dictionary-encoded while there are few of them
+//   score  FLOAT  one of 1000 values
+//   grade  CHAR   one of 26 letters
+//   day    DATE   one of 28 * 12 * 20 days
+class BenchmarkData {
+    static final String COLUMNS = "INT id, STR name, FLOAT score, CHAR grade, DATE day";
+
+    static Database generate(String filePath, int rows, int cardinality) {
+        Database database = new Database(filePath);
+        createTable(database, "bench", rows, cardinality);
+        return database;
+    }
+
+    // Rows go straight to the table, so that setting up millions of them doesn't parse as many queries
+    static void createTable(Database database, String name, int rows, int cardinality) {
+        check(database.query(String.format("create table %s (%s)", name, COLUMNS)));
+
+        try {
+            Table table = database.getTable(name);
+            Column[] columns = table.getColumns().toArray(new Column[0]);
+            for (int i = 0; i < rows; i++) {
+                Map<Column, String> values = new HashMap<>();
+                values.put(columns[0], Integer.toString(i));
+                values.put(columns[1], "n" + i % cardinality);
+                values.put(columns[2], String.format(Locale.ROOT, "%.1f", (i % 1000) / 10.0));
+                values.put(columns[3], Character.toString((char) ('a' + i % 26)));
+                values.put(columns[4], String.format("%02d-%02d-%d", i % 28 + 1, i % 12 + 1, 2000 + i % 20));
+                table.insert(values);
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // The same row as an INSERT statement
+    static String insert(String table, int i, int cardinality) {
+        return String.format(Locale.ROOT, "insert into %s (id, name, score, grade, day) values (%d, n%d, %.1f, %c, %02d-%02d-%d)",
+                table, i, i % cardinality, (i % 1000) / 10.0, (char) ('a' + i % 26), i % 28 + 1, i % 12 + 1, 2000 + i % 20);
+    }
+
+    static Result check(Result result) {
+        if (result.getStatus() != Result.Status.OK) throw new IllegalStateException(result.getReport());
+        return result;
+    }
+}
@@ -0,0 +1,87 @@
+package database;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Statements run through Database.query, as every front-end does, on one table of the given size
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EngineBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int rows;
+
+    // Distinct values of the name column; dictionaries close beyond Table.MAX_DICTIONARY_SIZE
+    @Param({"10", "100000"})
+    public int cardinality;
+
+    private Database database;
+    // Ids above the generated ones, for rows the benchmarks insert
+    private int nextId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = BenchmarkData.generate(null, rows, cardinality);
+        nextId = rows;
+    }
+
+    private int randomId() {
+        return ThreadLocalRandom.current().nextInt(rows);
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) throws Exception {
+        blackhole.consume(Statement.parse("select id, name from bench where name=n1,grade=b"));
+    }
+
+    @Benchmark
+    public Result insert() {
+        return database.query(BenchmarkData.insert("bench", nextId++, cardinality));
+    }
+
+    @Benchmark
+    public Result selectAll() {
+        return database.query("select * from bench");
+    }
+
+    @Benchmark
+    public Result selectByKey() {
+        return database.query("select * from bench where id=" + randomId());
+    }
+
+    @Benchmark
+    public Result selectByName() {
+        return database.query("select id, score from bench where name=n" + ThreadLocalRandom.current().nextInt(cardinality));
+    }
+
+    // No row matches, so zone maps decide how much is scanned
+    @Benchmark
+    public Result selectMissing() {
+        return database.query("select * from bench where id=-1");
+    }
+
+    @Benchmark
+    public void selectStreamed(Blackhole blackhole) {
+        database.query("select * from bench where grade=c", null, blackhole::consume);
+    }
+
+    @Benchmark
+    public Result updateByKey() {
+        return database.query("update bench set score=1.5 where id=" + randomId());
+    }
+
+    // Deletes a row and puts it back, so the table keeps its size
+    @Benchmark
+    public void deleteByKey(Blackhole blackhole) {
+        int id = randomId();
+        blackhole.consume(database.query("delete from bench where id=" + id));
+        blackhole.consume(database.query(BenchmarkData.insert("bench", id, cardinality)));
+    }
+}
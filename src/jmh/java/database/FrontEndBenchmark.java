@@ -0,0 +1,141 @@
+package database;
+
+import org.openjdk.jmh.annotations.*;
+import rmi.IDatabaseRemote;
+import rmi.IDatabaseRemoteV2;
+import rmi.ResultPage;
+import server.DatabaseServer;
+import soap.IQueryDatabase;
+import wire.WireClient;
+import wire.WireResult;
+
+import javax.xml.namespace.QName;
+import javax.xml.ws.Service;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Round trips through every front-end of one DatabaseServer: a lookup of one row by id, and a page
+// of 1000 rows. The servers run in the benchmark's own JVM, so only the protocols are compared.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FrontEndBenchmark {
+    private static final int PAGE_SIZE = 1000;
+    private static final String HTTP_PORT = "18080";
+    private static final int RMI_PORT = 12399;
+    private static final int WIRE_PORT = 12499;
+    private static final String SOAP_ADDRESS = "http://localhost:17779/ws/database";
+
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    private File file;
+    private IDatabaseRemote rmi;
+    private IDatabaseRemoteV2 rmiPaged;
+    private IQueryDatabase soap;
+    private WireClient wire;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        file = File.createTempFile("bench", ".json");
+        Database generated = BenchmarkData.generate(file.getPath(), rows, 1000);
+        BenchmarkData.createTable(generated, "page", PAGE_SIZE, 10);
+        generated.save();
+
+        Properties config = new Properties();
+        config.setProperty("database.path", file.getPath());
+        config.setProperty("server.mvc", "false");
+        config.setProperty("server.http.port", HTTP_PORT);
+        config.setProperty("server.rmi.port", Integer.toString(RMI_PORT));
+        config.setProperty("server.wire.port", Integer.toString(WIRE_PORT));
+        config.setProperty("server.soap.address", SOAP_ADDRESS);
+        DatabaseServer.start(config);
+
+        Registry registry = LocateRegistry.getRegistry(RMI_PORT);
+        rmi = (IDatabaseRemote) registry.lookup("IDatabaseRemote");
+        rmiPaged = (IDatabaseRemoteV2) registry.lookup("IDatabaseRemoteV2");
+
+        Service service = Service.create(new URL(SOAP_ADDRESS + "?wsdl"), new QName("http://soap/", "QueryDatabaseService"));
+        soap = service.getPort(IQueryDatabase.class);
+
+        wire = new WireClient("localhost", WIRE_PORT);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        wire.close();
+        file.delete();
+    }
+
+    private int randomId() {
+        return ThreadLocalRandom.current().nextInt(rows);
+    }
+
+    @Benchmark
+    public byte[] restLookup() throws IOException {
+        return get("/database/bench/select/*/id=" + randomId());
+    }
+
+    @Benchmark
+    public byte[] restPage() throws IOException {
+        return get("/database/page/select/*");
+    }
+
+    @Benchmark
+    public Result rmiLookup() throws Exception {
+        return rmi.query("select * from bench where id=" + randomId());
+    }
+
+    @Benchmark
+    public Result rmiPage() throws Exception {
+        return rmi.query("select * from page");
+    }
+
+    @Benchmark
+    public ResultPage rmiPagedPage() throws Exception {
+        ResultPage opened = rmiPaged.open(null, "select * from page");
+        return rmiPaged.fetch(opened.getCursorId(), PAGE_SIZE);
+    }
+
+    @Benchmark
+    public String soapLookup() {
+        return soap.query("select * from bench where id=" + randomId());
+    }
+
+    @Benchmark
+    public String soapPage() {
+        return soap.query("select * from page");
+    }
+
+    @Benchmark
+    public WireResult wireLookup() throws Exception {
+        return wire.query("select * from bench where id=" + randomId());
+    }
+
+    @Benchmark
+    public WireResult wirePage() throws Exception {
+        return wire.query("select * from page");
+    }
+
+    private static byte[] get(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + HTTP_PORT + path).openConnection();
+        try (InputStream in = connection.getInputStream()) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) > 0; ) body.write(buffer, 0, n);
+            return body.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package database;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Writing the whole database to its file, and reading it back
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PersistenceBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    @Param({"10", "100000"})
+    public int cardinality;
+
+    private File file;
+    private Database database;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = File.createTempFile("bench", ".json");
+        database = BenchmarkData.generate(file.getPath(), rows, cardinality);
+        database.save();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public void save() throws IOException {
+        database.save();
+    }
+
+    @Benchmark
+    public Database read() throws Exception {
+        return new DatabaseReader(file.getPath()).read();
+    }
+}
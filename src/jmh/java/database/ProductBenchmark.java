@@ -0,0 +1,38 @@
+package database;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+// CARTESIAN PRODUCT of two tables of the given size, collected and streamed
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductBenchmark {
+
+    @Param({"100", "1000"})
+    public int rows;
+
+    private Database database;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new Database(null);
+        BenchmarkData.createTable(database, "product_left", rows, 10);
+        BenchmarkData.createTable(database, "product_right", rows, 10);
+    }
+
+    @Benchmark
+    public Result cartesianProduct() {
+        return database.query("cartesian product product_left by product_right");
+    }
+
+    @Benchmark
+    public void cartesianProductStreamed(Blackhole blackhole) {
+        database.query("cartesian product product_left by product_right", null, blackhole::consume);
+    }
+}
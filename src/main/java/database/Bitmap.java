@@ -0,0 +1,73 @@
+package database;
+
+import java.util.Arrays;
+
+// Growable bitmap over row positions, kept as plain words so that it persists with the table.
+// Words are split into chunks so that copy() is cheap: a copy shares every chunk with its source
+// and clones a chunk only when it's first written, so published bitmaps are never modified.
+class Bitmap {
+    private static final int CHUNK_WORDS = 1024;
+
+    private long[][] chunks;
+    private transient boolean[] owned;
+
+    Bitmap() {
+        chunks = new long[0][];
+        owned = new boolean[0];
+    }
+
+    Bitmap copy() {
+        Bitmap result = new Bitmap();
+        result.chunks = chunks.clone();
+        result.owned = new boolean[chunks.length];
+        return result;
+    }
+
+    boolean get(int index) {
+        return (word(index >>> 6) & (1L << index)) != 0;
+    }
+
+    void set(int index) {
+        int word = index >>> 6;
+        int chunk = word / CHUNK_WORDS;
+
+        if (chunk >= chunks.length) chunks = Arrays.copyOf(chunks, Math.max(chunks.length * 2, chunk + 1));
+        if (owned == null || owned.length < chunks.length) owned = owned == null ? new boolean[chunks.length] : Arrays.copyOf(owned, chunks.length);
+
+        if (!owned[chunk]) {
+            chunks[chunk] = chunks[chunk] == null ? new long[CHUNK_WORDS] : chunks[chunk].clone();
+            owned[chunk] = true;
+        }
+        chunks[chunk][word % CHUNK_WORDS] |= 1L << index;
+    }
+
+    // Writes the unset bits of [from, to) into selection; from has to be a multiple of 64
+    void complementInto(int from, int to, long[] selection) {
+        for (int i = 0; i < selection.length; i++) {
+            int start = from + (i << 6);
+            if (start >= to) {
+                selection[i] = 0;
+                continue;
+            }
+
+            long bits = ~word(start >>> 6);
+            if (to - start < 64) bits &= (1L << (to - start)) - 1;
+            selection[i] = bits;
+        }
+    }
+
+    int cardinality() {
+        int result = 0;
+        for (long[] chunk : chunks) {
+            if (chunk == null) continue;
+            for (long word : chunk) result += Long.bitCount(word);
+        }
+        return result;
+    }
+
+    private long word(int word) {
+        int chunk = word / CHUNK_WORDS;
+        if (chunk >= chunks.length || chunks[chunk] == null) return 0;
+        return chunks[chunk][word % CHUNK_WORDS];
+    }
+}
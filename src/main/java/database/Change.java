@@ -0,0 +1,52 @@
+package database;
+
+import java.io.Serializable;
+
+// One row inserted, updated or deleted. Offsets count the changes of the whole database in the
+// order they were published, starting from 1 each time the database is opened.
+public class Change implements Serializable {
+    public enum Type {
+        INSERT,
+        UPDATE,
+        DELETE
+    }
+
+    private long offset;
+    private final String table;
+    private final Type type;
+    // Null for inserts
+    private final Row before;
+    // Null for deletes
+    private final Row after;
+
+    Change(String table, Type type, Row before, Row after) {
+        this.table = table;
+        this.type = type;
+        this.before = before;
+        this.after = after;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    void setOffset(long offset) {
+        this.offset = offset;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Row getBefore() {
+        return before;
+    }
+
+    public Row getAfter() {
+        return after;
+    }
+}
@@ -0,0 +1,132 @@
+package database;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+// Keeps the latest row changes of a database, so that subscribers can catch up from an offset they
+// saw before, and hands new ones to the subscriptions. Each subscription reads the feed on a thread
+// of its own, so a slow subscriber never holds up writers; one that falls further behind than the
+// feed keeps is told so and dropped. Tables only record their changes while someone listens; the
+// others take up offsets all the same, so that nobody resumes across them unawares.
+public class ChangeFeed {
+    public interface Listener {
+        // Throwing ends the subscription
+        void changed(Change change) throws Exception;
+
+        default void failed(Exception e) {
+        }
+    }
+
+    private static final int BATCH_SIZE = 1024;
+    private static final long POLL_MILLIS = 1000;
+
+    private final Change[] retained;
+    // Offset of the newest change, 0 before the first
+    private long offset;
+
+    ChangeFeed(int capacity) {
+        retained = new Change[Math.max(capacity, 1)];
+    }
+
+    synchronized void publish(List<Change> changes) {
+        for (Change change : changes) {
+            change.setOffset(++offset);
+            retained[(int) (offset % retained.length)] = change;
+        }
+        notifyAll();
+    }
+
+    // Gives offsets to changes that weren't recorded, returning the newest
+    synchronized long skip(int count) {
+        for (int i = 0; i < Math.min(count, retained.length); i++) {
+            retained[(int) ((offset + count - i) % retained.length)] = null;
+        }
+        offset += count;
+        return offset;
+    }
+
+    public synchronized long getOffset() {
+        return offset;
+    }
+
+    // Adds the recorded changes after from to result, waiting a while for one if there are none yet,
+    // and returns the offset read up to
+    synchronized long after(long from, long timeoutMillis, List<Change> result) throws Exception {
+        if (from > offset) throw new Exception(String.format("The offset %d hasn't been reached yet", from));
+        if (from < offset - retained.length) throw new Exception(String.format("Changes after the offset %d are no longer kept", from));
+
+        if (from == offset) wait(timeoutMillis);
+
+        long to = Math.min(offset, from + BATCH_SIZE);
+        for (long next = from + 1; next <= to; next++) {
+            Change change = retained[(int) (next % retained.length)];
+            if (change != null) result.add(change);
+        }
+        return to;
+    }
+
+    // ended runs once, when the subscription is closed or fails
+    Subscription subscribe(String table, Predicate<Row> predicate, long from, Listener listener, Runnable ended) {
+        Subscription subscription = new Subscription(table, predicate, from, listener, ended);
+        Thread thread = new Thread(subscription, "change-subscription-" + table);
+        thread.setDaemon(true);
+        thread.start();
+        return subscription;
+    }
+
+    public class Subscription implements Runnable, Closeable {
+        private final String table;
+        private final Predicate<Row> predicate;
+        private final Listener listener;
+        private final Runnable ended;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile long offset;
+
+        Subscription(String table, Predicate<Row> predicate, long from, Listener listener, Runnable ended) {
+            this.table = table;
+            this.predicate = predicate;
+            this.offset = from;
+            this.listener = listener;
+            this.ended = ended;
+        }
+
+        // The offset of the last change delivered or skipped; subscribing again from it resumes here
+        public long getOffset() {
+            return offset;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) ended.run();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!closed.get()) {
+                    List<Change> changes = new ArrayList<>();
+                    long to = after(offset, POLL_MILLIS, changes);
+                    for (Change change : changes) {
+                        if (closed.get()) return;
+                        if (matches(change)) listener.changed(change);
+                        offset = change.getOffset();
+                    }
+                    if (!closed.get()) offset = to;
+                }
+            } catch (Exception e) {
+                close();
+                listener.failed(e);
+            }
+        }
+
+        // Updates are delivered when the row matched before or after the change
+        private boolean matches(Change change) {
+            if (!change.getTable().equals(table)) return false;
+            return (change.getBefore() != null && predicate.test(change.getBefore()))
+                    || (change.getAfter() != null && predicate.test(change.getAfter()));
+        }
+    }
+}
@@ -14,6 +14,8 @@ public class Column {
     private String name;
     private boolean nullAllowed = true;
     private boolean unique = false;
+    // The column's position in its table, given again when the table is read
+    private transient int ordinal;
 
     public Column(Type type, String name) {
         this.type = type;
@@ -51,4 +53,12 @@ public class Column {
     public void setUnique(boolean unique) {
         this.unique = unique;
     }
+
+    public int getOrdinal() {
+        return ordinal;
+    }
+
+    void setOrdinal(int ordinal) {
+        this.ordinal = ordinal;
+    }
 }
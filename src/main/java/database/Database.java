@@ -2,43 +2,259 @@ package database;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import org.mentaregex.Regex;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
-import java.util.function.Predicate;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 public class Database {
 
+    private static final String EPOCH = Long.toString(System.currentTimeMillis(), 36);
+    // How many of the latest row changes subscribers can still resume from
+    private static final int CHANGES_KEPT = Integer.getInteger("database.changes.kept", 65536);
+
     private String filePath;
 
-    private HashMap<String, Table> tables;
+    private ConcurrentMap<String, Table> tables;
+
+    private transient QueryExecutor executor;
+
+    private transient MutationLog log;
+    private transient ChangeFeed changes;
+    private transient QueryMetrics metrics;
+    private transient volatile SlowQueryLog slowQueries;
+    private transient volatile WorkloadCapture capture;
+    // Row writes share it and table changes take it alone, so that changes reach the log in the
+    // order they were applied
+    private transient ReentrantReadWriteLock catalogLock;
+
+    // Set on replicas, which only change through replay
+    private transient volatile boolean readOnly;
+    private transient volatile long appliedSequence = -1;
+    private transient volatile long primarySequence;
+    private transient volatile long caughtUpAt;
+    // Only written by the thread replicating into this database
+    private transient volatile long failedEntries;
+    private transient volatile String replicationError;
+    private transient volatile boolean detached;
 
     public Database(String filePath) {
         this.filePath = filePath;
-        tables = new HashMap<>();
+        tables = new ConcurrentHashMap<>();
+        log = new MutationLog();
+        changes = new ChangeFeed(CHANGES_KEPT);
+        metrics = new QueryMetrics();
+        slowQueries = new SlowQueryLog(filePath);
+        catalogLock = new ReentrantReadWriteLock();
     }
 
     public String getFilePath() { return filePath; }
 
-    public void setFilePath(String value) { filePath = value; }
+    // The slow query log moves along with the file
+    public void setFilePath(String value) {
+        filePath = value;
+        setSlowQueryLog(new SlowQueryLog(value));
+    }
+
+    Table getTable(String name) throws Exception {
+        Table table = tables.get(name);
+        if (table == null) throw new Exception(String.format("A table with the name '%s' doesn't exist", name));
+        return table;
+    }
 
     public Collection<Column> getTableColumns(String name) throws Exception {
-        if (!tables.containsKey(name)) throw new Exception(String.format("A table with the name '%s' doesn't exist", name));
-        return tables.get(name).getColumns();
+        return getTable(name).getColumns();
     }
 
     public void createTable(String name, Collection<Column> columns) throws Exception {
-        if (tables.containsKey(name)) throw new Exception(String.format("A table with the name '%s' already exists", name));
-        tables.put(name, new Table(name, columns));
+        Table table = new Table(name, columns);
+        table.setChangeFeed(changes);
+        if (tables.putIfAbsent(name, table) != null) throw new Exception(String.format("A table with the name '%s' already exists", name));
     }
 
     public void dropTable(String name) throws Exception {
-        if (!tables.containsKey(name)) throw new Exception(String.format("A table with the name '%s' doesn't exist", name));
-        tables.remove(name);
+        Table table = getTable(name);
+        if (!table.getViews().isEmpty()) {
+            throw new Exception(String.format("The table '%s' has materialized views: %s", name, table.getViews().stream().map(Table::getName).collect(Collectors.joining(", "))));
+        }
+
+        if (tables.remove(name) == null) throw new Exception(String.format("A table with the name '%s' doesn't exist", name));
+        if (table.getView() != null) getTable(table.getView().getBase()).getViews().remove(table);
+    }
+
+    // The view starts out with the rows of the base table matching the condition and follows its changes
+    private void createView(String name, String base, String columnsExpr, String condition) throws Exception {
+        Table baseTable = getTable(base);
+        if (baseTable.getView() != null) throw new Exception("A materialized view can't be made of another view");
+
+        Collection<Column> baseColumns = columnsExpr.equals("*") ? baseTable.getColumns() : toColumns(parseValues(columnsExpr), baseTable);
+        ArrayList<Column> columns = new ArrayList<>();
+        for (Column column : baseColumns) columns.add(new Column(column.getType(), column.getName()));
+
+        View view = new View(base, columns.stream().map(Column::getName).collect(Collectors.toList()), condition);
+        view.bind(parsePredicate(condition, baseTable), new ArrayList<>(baseColumns));
+
+        Table table = new Table(name, columns);
+        table.setChangeFeed(changes);
+        if (tables.putIfAbsent(name, table) != null) throw new Exception(String.format("A table with the name '%s' already exists", name));
+        table.materialize(view, baseTable);
+    }
+
+    private QueryExecutor executor() {
+        return executor != null ? executor : QueryExecutor.shared;
+    }
+
+    void setExecutor(QueryExecutor executor) {
+        this.executor = executor;
+    }
+
+    void setSlowQueryLog(SlowQueryLog slowQueries) {
+        SlowQueryLog replaced = this.slowQueries;
+        this.slowQueries = slowQueries;
+        if (replaced != null) replaced.close();
+    }
+
+    // loadedFrom is the file the database was read from, if any; the file path stored in the
+    // database may be another machine's, as on a replica, so the slow query log doesn't follow it
+    void restore(String loadedFrom) throws Exception {
+        log = new MutationLog();
+        changes = new ChangeFeed(CHANGES_KEPT);
+        metrics = new QueryMetrics();
+        slowQueries = new SlowQueryLog(loadedFrom);
+        catalogLock = new ReentrantReadWriteLock();
+        appliedSequence = -1;
+        for (Table table : tables.values()) {
+            table.restore();
+            table.setChangeFeed(changes);
+        }
+        for (Table table : tables.values()) {
+            View view = table.getView();
+            if (view == null) continue;
+
+            Table base = getTable(view.getBase());
+            view.bind(parsePredicate(view.getCondition(), base), toColumns(view.getColumns(), base));
+            base.getViews().add(table);
+        }
+    }
+
+    // Changes whenever one of the tables does, is dropped or is created again. Read it before running
+    // a query and the result is at least as new as the tag; tags of an earlier run never come back.
+    public String getVersionTag(String... tableNames) {
+        StringBuilder tag = new StringBuilder(EPOCH);
+        for (String name : tableNames) {
+            Table table = tables.get(name);
+            tag.append('-').append(table == null ? "0" : Long.toString(table.getVersion(), 36));
+        }
+        return tag.toString();
+    }
+
+    // SUBSCRIBE <tablename> [WHERE column1=value1, ...]: hands the listener every change to the rows
+    // of the table matching the condition, starting after the given offset; -1 starts with the
+    // changes still to come
+    public ChangeFeed.Subscription subscribe(String queryMessage, long offset, ChangeFeed.Listener listener) throws Exception {
+        Statement statement = Statement.parse(queryMessage);
+        if (statement.getRegex() != QueryRegex.SUBSCRIBE) throw new Exception("Only SUBSCRIBE starts a subscription");
+
+        Table table = getTable(statement.getTableName());
+        Filter filter = parsePredicate(statement.getMatches().size() > 1 ? statement.getMatches().get(1) : null, table);
+        return table.subscribe(filter, offset, listener);
+    }
+
+    public QueryMetrics getMetrics() {
+        return metrics;
+    }
+
+    public SlowQueryLog getSlowQueryLog() {
+        return slowQueries;
+    }
+
+    // Records the statements received from now on to the file, replacing it, for replay.Replay
+    public synchronized void startCapture(String path) throws IOException {
+        stopCapture();
+        capture = new WorkloadCapture(path);
+    }
+
+    public synchronized void stopCapture() throws IOException {
+        if (capture == null) return;
+        capture.close();
+        capture = null;
+    }
+
+    public ChangeFeed getChanges() {
+        return changes;
+    }
+
+    public MutationLog getLog() {
+        return log;
+    }
+
+    // Turns this database into a read-only replica of a primary whose log stood at sequence when
+    // the database was copied from it
+    public void startReplica(long sequence) {
+        readOnly = true;
+        appliedSequence = sequence;
+        primarySequence = sequence;
+        caughtUpAt = System.currentTimeMillis();
+    }
+
+    // Writes the database as it is now to snapshot and hands listener every change made after it.
+    // Writers are held off meanwhile, so the snapshot and the log continue each other exactly.
+    public long subscribe(MutationLog.Listener listener, Writer snapshot) throws IOException {
+        catalogLock.writeLock().lock();
+        try {
+            write(snapshot, new Gson());
+            return log.addListener(listener);
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    // Applies an entry of another database's mutation log; the statements of a transaction are
+    // applied together again
+    public Result replay(long sequence, List<String> statements) {
+        Result result = new Result(Result.Status.OK);
+        try {
+            if (statements.size() == 1) {
+                apply(Statement.parse(statements.get(0)), result, null);
+            } else {
+                List<Statement> parsed = new ArrayList<>();
+                for (String statement : statements) parsed.add(Statement.parse(statement));
+                commit(parsed, false);
+            }
+        } catch (Exception e) {
+            // Only what succeeded on the primary is logged, so the copy no longer matches it
+            result = new Result(Result.Status.FAIL).setReport(e.getMessage());
+            failedEntries++;
+            replicationError = String.format("Entry %d failed: %s", sequence, e.getMessage());
+        }
+
+        appliedSequence = sequence;
+        if (sequence >= primarySequence) caughtUpAt = System.currentTimeMillis();
+        return result;
+    }
+
+    // The replica stopped following its primary; it stays readable as it is
+    public void detachReplica(String reason) {
+        replicationError = reason;
+        detached = true;
+    }
+
+    // Where the primary's log stands, as last heard from it
+    public void setPrimarySequence(long sequence) {
+        primarySequence = sequence;
+        if (appliedSequence >= sequence) caughtUpAt = System.currentTimeMillis();
     }
 
     public Collection<String> getTableNames() {
@@ -46,106 +262,468 @@ public class Database {
     }
 
     public Result query(String queryMessage) {
+        return query(queryMessage, null);
+    }
+
+    // Statements run on the query executor, except for the session commands, SHOW QUERIES and
+    // CANCEL, which are cheap and must not wait behind other queries; SHOW QUERIES lists the ids
+    // to cancel queries by while they run. Inside a transaction row writes are only queued
+    // on the session, while reads keep seeing committed data; the queued writes are applied and
+    // saved together at COMMIT.
+    public Result query(String queryMessage, Session session) {
+        return query(queryMessage, session, null);
+    }
+
+    // With a sink, the rows of selects and products are handed to it as they are found instead of
+    // being collected into the result. Such a query runs as long as the sink takes rows, without
+    // the executor's timeout, on the executor's stream threads; CANCEL still stops it.
+    public Result query(String queryMessage, Session session, Consumer<Row> sink) {
+        WorkloadCapture capture = this.capture;
+        if (capture != null) capture.query(queryMessage, session);
+
+        Statement statement;
         try {
-            for (QueryRegex regex : QueryRegex.values()) {
-                String[] found = Regex.match(queryMessage, regex.getRegex());
-                if (found == null) continue;
+            long started = System.nanoTime();
+            statement = Statement.parse(queryMessage);
+            statement.setParseNanos(System.nanoTime() - started);
+            metrics.record(statement.getRegex(), QueryMetrics.Phase.PARSE, statement.getParseNanos());
+        } catch (Exception e) {
+            metrics.recordInvalid();
+            return new Result(Result.Status.FAIL).setReport(e.getMessage());
+        }
 
-                ArrayList<String> matches = Arrays.stream(found).filter(Predicate.isEqual(null).negate()).map(String::trim).collect(Collectors.toCollection(ArrayList::new));
+        Result result = dispatch(statement, session, sink);
+        metrics.recordResult(statement.getRegex(), result);
+        return result;
+    }
 
-                Result result = new Result(Result.Status.OK);
-                boolean modified = false;
+    private Result dispatch(Statement statement, Session session, Consumer<Row> sink) {
+        try {
+            Result result = new Result(Result.Status.OK);
+
+            switch (statement.getRegex()) {
+                case BEGIN:
+                    sessionOf(session).begin();
+                    return result;
+                case ROLLBACK:
+                    sessionOf(session).end();
+                    return result;
+                case SHOW_QUERIES:
+                    result.setRows(executor().getRunning().stream().map(Database::runningQueryRow).collect(Collectors.toCollection(ArrayList::new)));
+                    return result;
+                case CANCEL:
+                    executor().cancel(Long.parseLong(statement.getMatches().get(0)));
+                    return result;
+                case SUBSCRIBE:
+                    throw new Exception("SUBSCRIBE streams changes and can't be run as a query");
+            }
 
-                switch (regex) {
-                    case INSERT_ROW: {
-                        Table table = tables.get(matches.get(0));
+            QueryExecutor.Kind kind = sink == null ? QueryExecutor.kindOf(statement) : QueryExecutor.Kind.STREAM;
+            return executor().run(kind, statement.getText(), sink == null, () -> run(statement, session, sink));
+        } catch (Exception e) {
+            return new Result(Result.Status.FAIL).setReport(e.getMessage());
+        }
+    }
 
-                        ArrayList<Column> columns = toColumns(parseValues(matches.get(1)), table);
-                        ArrayList<String> values = parseValues(matches.get(2));
+    // Runs the queries in order as one task of the query executor, saving once at the end. An atomic
+    // batch may only hold row writes, which are then applied like the writes of a transaction. Each
+    // query counts into the metrics and the slow query log as if it had been sent on its own.
+    public List<Result> batch(List<String> queryMessages, boolean atomic) {
+        WorkloadCapture capture = this.capture;
+        if (capture != null) capture.batch(queryMessages, atomic);
+
+        List<Statement> statements = new ArrayList<>();
+        List<Result> results = new ArrayList<>();
+        boolean valid = true;
+
+        for (String queryMessage : queryMessages) {
+            Statement statement = null;
+            Result result = new Result(Result.Status.OK);
+            try {
+                long started = System.nanoTime();
+                statement = Statement.parse(queryMessage);
+                statement.setParseNanos(System.nanoTime() - started);
+                metrics.record(statement.getRegex(), QueryMetrics.Phase.PARSE, statement.getParseNanos());
+                if (atomic ? !statement.isRowWrite() : !statement.isRowWrite() && !statement.isReadOnly() && !statement.isTableChange()) {
+                    throw new Exception(String.format("'%s' can't be part of %s batch", queryMessage, atomic ? "an atomic" : "a"));
+                }
+            } catch (Exception e) {
+                result = new Result(Result.Status.FAIL).setReport(e.getMessage());
+                if (statement == null) {
+                    metrics.recordInvalid();
+                } else {
+                    metrics.recordResult(statement.getRegex(), result);
+                }
+                // Turned down, so it isn't run
+                statement = null;
+                valid = false;
+            }
+            statements.add(statement);
+            results.add(result);
+        }
 
-                        table.insert(IntStream.range(0, columns.size()).boxed().collect(Collectors.toMap(columns::get, values::get)));
-                        modified = true;
-                        break;
-                    }
-                    case DELETE_ROWS: {
-                        tables.get(matches.get(0)).delete(parsePredicate(matches.get(1)));
-                        modified = true;
-                        break;
-                    }
-                    case UPDATE_ROWS: {
-                        Table table = tables.get(matches.get(0));
+        if (atomic && !valid) return results;
+        if (statements.stream().allMatch(Objects::isNull)) return results;
 
-                        ArrayList<String> assignmentExprs = parseValues(matches.get(1));
-                        Map<Column, String> assignments = new HashMap<>();
+        String text = String.format("%s batch of %d queries", atomic ? "atomic" : "plain", queryMessages.size());
+        Result batchResult = executor().run(QueryExecutor.kindOf(statements), text, () -> {
+            QueryContext context = QueryContext.current();
+            for (Statement statement : statements) {
+                if (statement != null && context != null) metrics.record(statement.getRegex(), QueryMetrics.Phase.QUEUE, context.getQueuedNanos());
+            }
 
-                        for (String assignmentExpr : assignmentExprs) {
-                            String[] pair = parseEqual(assignmentExpr);
-                            assignments.put(table.getColumn(pair[0]), pair[1]);
-                        }
+            try {
+                if (atomic) {
+                    for (Statement statement : statements) checkWritable(statement);
+                    commit(statements, true);
+                    save();
+                    return new Result(Result.Status.OK);
+                }
 
-                        table.update(assignments, parsePredicate(matches.get(2)));
-                        modified = true;
-                        break;
+                boolean modified = false;
+                for (int i = 0; i < statements.size(); i++) {
+                    if (statements.get(i) == null) continue;
+                    long started = System.nanoTime();
+                    try {
+                        checkWritable(statements.get(i));
+                        modified |= apply(statements.get(i), results.get(i), null);
+                    } catch (Exception e) {
+                        results.set(i, new Result(Result.Status.FAIL).setReport(e.getMessage()));
                     }
-                    case SELECT_ROWS: {
-                        Table table = tables.get(matches.get(1));
-                        String predicateExpr = matches.size() > 2 ? matches.get(2) : null;
-                        Collection<Column> columns = matches.get(0).equals("*") ? table.getColumns() : toColumns(parseValues(matches.get(0)), table);
+                    recordExecution(statements.get(i), results.get(i).getStatus(), System.nanoTime() - started, 0);
+                }
+                if (modified) save();
 
-                        result.setRows(table.select(columns, parsePredicate(predicateExpr)));
-                        break;
-                    }
-                    case CREATE_TABLE: {
-                        String[] columnProps = matches.get(1).split(",");
+                return new Result(Result.Status.OK);
+            } catch (Exception e) {
+                return new Result(Result.Status.FAIL).setReport(e.getMessage());
+            }
+        });
+
+        // A batch that failed as a whole (turned down, out of time, rolled back) reports that for every query
+        boolean failed = batchResult.getStatus() == Result.Status.FAIL;
+        for (int i = 0; i < statements.size(); i++) {
+            if (statements.get(i) != null) metrics.recordResult(statements.get(i).getRegex(), failed ? batchResult : results.get(i));
+        }
+        if (failed) return new ArrayList<>(Collections.nCopies(queryMessages.size(), batchResult));
 
-                        ArrayList<Column> columns = new ArrayList<>();
-                        for (String prop : columnProps) {
-                            String[] tokens = prop.trim().split("\\s+");
+        for (Result result : results) result.setQueryId(batchResult.getQueryId());
+        return results;
+    }
 
-                            Column column = new Column(Column.Type.valueOf(tokens[0]), tokens[1]);
-                            //TODO
-                            columns.add(column);
-                        }
+    // Counts the statement's time on the executor, apart from saving, and its scans; statements slower
+    // than the threshold of the slow query log go to it as well
+    private Result run(Statement statement, Session session, Consumer<Row> sink) {
+        QueryContext context = QueryContext.current();
+        if (context != null) metrics.record(statement.getRegex(), QueryMetrics.Phase.QUEUE, context.getQueuedNanos());
 
-                        createTable(matches.get(0), columns);
-                        modified = true;
-                        break;
-                    }
-                    case DROP_TABLE: {
-                        dropTable(matches.get(0));
-                        modified = true;
-                        break;
-                    }
-                    case LIST_TABLES: {
-                        result.setRows(getTableNames().stream().map(tableName -> new Row(Collections.singletonList(new Element(tableName, "table_name")))).collect(Collectors.toCollection(ArrayList::new)));
-                        break;
-                    }
-                    case CARTESIAN_PRODUCT: {
-                        Table leftTable = tables.get(matches.get(0));
-                        Table rightTable = tables.get(matches.get(1));
-                        result.setRows(leftTable.cartesianProduct(rightTable));
-                        break;
-                    }
-                }
+        long started = System.nanoTime();
+        long[] persisted = {0};
+        Result result = null;
+        try {
+            result = run(statement, session, sink, persisted);
+            return result;
+        } finally {
+            Result.Status status = result == null ? Result.Status.FAIL : result.getStatus();
+            recordExecution(statement, status, System.nanoTime() - started - persisted[0], persisted[0]);
+        }
+    }
 
-                if (modified) save();
+    // The context's counters start over afterwards, for the next statement of a batch
+    private void recordExecution(Statement statement, Result.Status status, long executed, long persisted) {
+        metrics.record(statement.getRegex(), QueryMetrics.Phase.EXECUTE, executed);
+
+        QueryContext context = QueryContext.current();
+        if (context == null) return;
+        metrics.recordScan(statement.getRegex(), context);
+        long total = context.getQueuedNanos() + statement.getParseNanos() + executed + persisted;
+        if (slowQueries.isSlow(total)) slowQueries.add(new SlowQueryLog.Entry(statement, status, context, executed, persisted));
+        context.resetCounters();
+    }
 
+    private Result run(Statement statement, Session session, Consumer<Row> sink, long[] persisted) {
+        try {
+            Result result = new Result(Result.Status.OK);
+
+            if (statement.getRegex() == QueryRegex.COMMIT) {
+                List<Statement> statements = sessionOf(session).end();
+                for (Statement queued : statements) checkWritable(queued);
+                commit(statements, false);
+                if (!statements.isEmpty()) persisted[0] = persist(statement);
                 return result;
             }
+
+            if (session != null && session.isInTransaction()) {
+                if (statement.isRowWrite()) {
+                    getTable(statement.getTableName());
+                    checkWritable(statement);
+                    session.add(statement);
+                    return result;
+                }
+                if (!statement.isReadOnly()) throw new Exception("Tables can't be created, dropped or altered inside a transaction");
+            }
+
+            checkWritable(statement);
+            if (apply(statement, result, sink)) persisted[0] = persist(statement);
+
+            return result;
         } catch (Exception e) {
             return new Result(Result.Status.FAIL).setReport(e.getMessage());
         }
+    }
+
+    private void checkWritable(Statement statement) throws Exception {
+        if (readOnly && !statement.isReadOnly()) throw new Exception("This database is a read-only replica");
+
+        Table table = statement.isRowWrite() ? tables.get(statement.getTableName()) : null;
+        if (table != null && table.getView() != null) {
+            throw new Exception(String.format("'%s' is a materialized view and only changes with its base table", statement.getTableName()));
+        }
+    }
+
+    // Runs a statement and logs it if it changed anything. The change is still locked in when it is
+    // logged: row writes hold their table and table changes the whole catalog.
+    private boolean apply(Statement statement, Result result, Consumer<Row> sink) throws Exception {
+        if (statement.isReadOnly()) return execute(statement, null, result, sink);
+
+        Lock lock = statement.isRowWrite() ? catalogLock.readLock() : catalogLock.writeLock();
+        waitFor(lock);
+        try {
+            Table table = statement.isRowWrite() ? getTable(statement.getTableName()) : null;
+            if (table != null) waitFor(table.writeLock());
+            try {
+                QueryContext.beginApplying();
+                boolean modified = execute(statement, table, result, sink);
+                if (modified) log.append(Collections.singletonList(statement.getText()));
+                return modified;
+            } finally {
+                if (table != null) table.writeLock().unlock();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Runs a statement and tells whether it changed anything that has to be saved. A row write goes
+    // to target, the table the caller locked for it, rather than to whatever has its name now.
+    private boolean execute(Statement statement, Table target, Result result, Consumer<Row> sink) throws Exception {
+        ArrayList<String> matches = statement.getMatches();
+        boolean modified = false;
+
+        switch (statement.getRegex()) {
+            case INSERT_ROW: {
+                Table table = target;
+
+                ArrayList<Column> columns = toColumns(parseValues(matches.get(1)), table);
+                ArrayList<String> values = parseValues(matches.get(2));
+
+                table.insert(IntStream.range(0, columns.size()).boxed().collect(Collectors.toMap(columns::get, values::get)));
+                modified = true;
+                break;
+            }
+            case DELETE_ROWS: {
+                Table table = target;
+                table.delete(parsePredicate(matches.get(1), table));
+                modified = true;
+                break;
+            }
+            case UPDATE_ROWS: {
+                Table table = target;
+
+                ArrayList<String> assignmentExprs = parseValues(matches.get(1));
+                Map<Column, String> assignments = new HashMap<>();
+
+                for (String assignmentExpr : assignmentExprs) {
+                    String[] pair = parseEqual(assignmentExpr);
+                    assignments.put(table.getColumn(pair[0]), pair[1]);
+                }
+
+                table.update(assignments, parsePredicate(matches.get(2), table));
+                modified = true;
+                break;
+            }
+            case SELECT_ROWS: {
+                Table table = getTable(matches.get(1));
+                String predicateExpr = matches.size() > 2 ? matches.get(2) : null;
+                Collection<Column> columns = matches.get(0).equals("*") ? table.getColumns() : toColumns(parseValues(matches.get(0)), table);
+
+                if (sink != null) {
+                    table.select(columns, parsePredicate(predicateExpr, table), sink);
+                } else {
+                    result.setRows(table.select(columns, parsePredicate(predicateExpr, table)));
+                }
+                break;
+            }
+            case CREATE_TABLE: {
+                String[] columnProps = matches.get(1).split(",");
+
+                ArrayList<Column> columns = new ArrayList<>();
+                for (String prop : columnProps) {
+                    String[] tokens = prop.trim().split("\\s+");
+
+                    Column column = new Column(Column.Type.valueOf(tokens[0]), tokens[1]);
+                    //TODO
+                    columns.add(column);
+                }
+
+                createTable(matches.get(0), columns);
+                modified = true;
+                break;
+            }
+            case CREATE_VIEW: {
+                createView(matches.get(0), matches.get(2), matches.get(1), matches.size() > 3 ? matches.get(3) : null);
+                modified = true;
+                break;
+            }
+            case DROP_TABLE: {
+                dropTable(matches.get(0));
+                modified = true;
+                break;
+            }
+            case ALTER_STORAGE: {
+                getTable(matches.get(0)).setStorage(Table.Storage.valueOf(matches.get(1).toUpperCase()));
+                modified = true;
+                break;
+            }
+            case LIST_TABLES: {
+                result.setRows(getTableNames().stream().map(tableName -> new Row(Collections.singletonList(new Element(tableName, "table_name")))).collect(Collectors.toCollection(ArrayList::new)));
+                break;
+            }
+            case SHOW_REPLICATION: {
+                result.setRows(Collections.singletonList(replicationRow()));
+                break;
+            }
+            case SHOW_SLOW_QUERIES: {
+                result.setRows(slowQueries.getRecent().stream().map(Database::slowQueryRow).collect(Collectors.toCollection(ArrayList::new)));
+                break;
+            }
+            case CARTESIAN_PRODUCT: {
+                Table leftTable = tables.get(matches.get(0));
+                Table rightTable = tables.get(matches.get(1));
+                if (sink != null) {
+                    leftTable.cartesianProduct(rightTable, sink);
+                } else {
+                    result.setRows(leftTable.cartesianProduct(rightTable));
+                }
+                break;
+            }
+        }
 
-        return new Result(Result.Status.FAIL).setReport("Invalid query syntax");
+        return modified;
     }
 
-    private Predicate<Row> parsePredicate(String expr) throws Exception {
-        Predicate<Row> result = row -> true;
+    // The statements run with the write locks of all their tables held, taken in name order so that
+    // two commits can't wait for each other, and their changes are published together; if one
+    // fails, none of them is kept. The tables are looked up with the catalog locked, so a table
+    // dropped and created again meanwhile is never written without its lock. The statements of an
+    // atomic batch are recorded one by one, those of a transaction were already recorded as they
+    // were queued.
+    private void commit(List<Statement> statements, boolean recorded) throws Exception {
+        if (statements.isEmpty()) return;
+
+        List<Table> batched = new ArrayList<>();
+        boolean committed = false;
+        waitFor(catalogLock.readLock());
+        try {
+            SortedMap<String, Table> touched = new TreeMap<>();
+            for (Statement statement : statements) touched.put(statement.getTableName(), getTable(statement.getTableName()));
+
+            for (Table table : touched.values()) {
+                long started = System.nanoTime();
+                table.beginBatch();
+                addLockWait(System.nanoTime() - started);
+                batched.add(table);
+            }
+            QueryContext.beginApplying();
+            for (Statement statement : statements) {
+                long started = System.nanoTime();
+                execute(statement, touched.get(statement.getTableName()), new Result(Result.Status.OK), null);
+                if (recorded) recordExecution(statement, Result.Status.OK, System.nanoTime() - started, 0);
+            }
+            committed = true;
+
+            log.append(statements.stream().map(Statement::getText).collect(Collectors.toList()));
+        } catch (Exception e) {
+            throw new Exception(String.format("Transaction rolled back: %s", e.getMessage()));
+        } finally {
+            for (Table table : batched) table.endBatch(committed);
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    // Takes the lock, counting the wait into the running query
+    private static void waitFor(Lock lock) {
+        long started = System.nanoTime();
+        lock.lock();
+        addLockWait(System.nanoTime() - started);
+    }
+
+    private static void addLockWait(long nanos) {
+        QueryContext context = QueryContext.current();
+        if (context != null) context.lockWaitNanos += nanos;
+    }
+
+    // Saves after a statement changed something and tells how long it took
+    private long persist(Statement statement) throws IOException {
+        long started = System.nanoTime();
+        save();
+        long elapsed = System.nanoTime() - started;
+        metrics.record(statement.getRegex(), QueryMetrics.Phase.PERSIST, elapsed);
+        return elapsed;
+    }
+
+    // On a replica the lag is how far it is behind the primary's log, and how long it has been since
+    // it was last caught up
+    private Row replicationRow() {
+        boolean replica = appliedSequence >= 0;
+        long sequence = replica ? appliedSequence : log.getSequence();
+        long primary = replica ? Math.max(primarySequence, sequence) : sequence;
+        // A detached replica can't know how far behind it is, only since when
+        long lagMillis = replica && (detached || sequence < primary) ? System.currentTimeMillis() - caughtUpAt : 0;
+
+        return new Row(Arrays.asList(
+                new Element(replica ? "replica" : "primary", "role"),
+                new Element(!replica ? "serving" : detached ? "detached" : "following", "state"),
+                new Element(Long.toString(sequence), "sequence"),
+                new Element(Long.toString(primary), "primary_sequence"),
+                new Element(Long.toString(primary - sequence), "lag"),
+                new Element(Long.toString(lagMillis), "lag_ms"),
+                new Element(Long.toString(failedEntries), "failed_entries"),
+                new Element(replicationError, "last_error")));
+    }
+
+    private static Row runningQueryRow(QueryContext context) {
+        return new Row(Arrays.asList(
+                new Element(Long.toString(context.getId()), "query_id"),
+                new Element(context.isStarted() ? "running" : "queued", "state"),
+                new Element(Long.toString(context.getElapsedNanos() / 1_000_000), "elapsed_ms"),
+                new Element(context.getText(), "query")));
+    }
+
+    private static Row slowQueryRow(SlowQueryLog.Entry entry) {
+        String[] values = entry.values();
+        List<Element> elements = new ArrayList<>();
+        for (int i = 0; i < values.length; i++) elements.add(new Element(values[i], SlowQueryLog.COLUMNS[i]));
+        return new Row(elements);
+    }
+
+    private Session sessionOf(Session session) throws Exception {
+        if (session == null) throw new Exception("Transactions are only available within a session");
+        return session;
+    }
+
+    private Filter parsePredicate(String expr, Table table) throws Exception {
+        Filter result = new Filter();
 
         if (expr == null) return result;
 
         for (String equalExpr : parseValues(expr)) {
-            result = result.and(toEqualPredicate(parseEqual(equalExpr)));
+            String[] pair = parseEqual(equalExpr);
+            if (!table.hasColumn(pair[0])) return result.add(0, element -> false);
+
+            // Resolve the column once per query so the per-row check is a plain array access
+            Column column = table.getColumn(pair[0]);
+            result.addEqual(column, pair[1]);
         }
 
         return result;
@@ -157,14 +735,6 @@ public class Database {
         return pair;
     }
 
-    private Predicate<Row> toEqualPredicate(String[] pair) {
-        return row -> {
-            Element element = row.getElement(pair[0]);
-            if (element == null) return false;
-            return element.equals(pair[1]);
-        };
-    }
-
     private ArrayList<String> parseValues(String expr) throws Exception {
         return Arrays.stream(expr.split(",")).map(String::trim).collect(Collectors.toCollection(ArrayList::new));
     }
@@ -175,12 +745,39 @@ public class Database {
         return result;
     }
 
-    public void save() throws IOException {
+    // The file is written next to the target and moved over it, so a failed save never leaves a truncated
+    // file. Saves take turns, so that a later one is never overwritten by an earlier one.
+    public synchronized void save() throws IOException {
         if (filePath == null) return;
 
-        FileWriter writer = new FileWriter(filePath);
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        gson.toJson(this, writer);
+        Path target = Paths.get(filePath);
+        Path temp = Paths.get(filePath + ".tmp");
+
+        FileWriter writer = new FileWriter(temp.toFile());
+        write(writer, new GsonBuilder().setPrettyPrinting().create());
         writer.close();
+        metrics.recordSave(Files.size(temp));
+
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Each table is copied as of its last published change, under its own lock only, and written out
+    // once the lock is let go. A transaction over several tables that commits meanwhile may be
+    // written in part; the save that follows its commit writes all of it.
+    private void write(Writer writer, Gson gson) {
+        Map<String, Table> copies = new LinkedHashMap<>();
+        for (Map.Entry<String, Table> entry : tables.entrySet()) copies.put(entry.getKey(), entry.getValue().savedCopy());
+        gson.toJson(new Saved(filePath, copies), writer);
+    }
+
+    // What is written of a database, with the same fields as it
+    private static class Saved {
+        final String filePath;
+        final Map<String, Table> tables;
+
+        Saved(String filePath, Map<String, Table> tables) {
+            this.filePath = filePath;
+            this.tables = tables;
+        }
     }
 }
@@ -4,6 +4,7 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
 import java.io.FileReader;
+import java.io.Reader;
 
 public class DatabaseReader {
     private String filePath;
@@ -21,8 +22,20 @@ public class DatabaseReader {
     }
 
     public Database read() throws Exception {
-        FileReader reader = new FileReader(filePath);
+        try (Reader reader = new FileReader(filePath)) {
+            return read(reader, filePath);
+        }
+    }
+
+    // Reads a database written to another stream than the file, such as a replica's copy
+    public Database read(Reader reader) throws Exception {
+        return read(reader, null);
+    }
+
+    private Database read(Reader reader, String loadedFrom) throws Exception {
         Gson gson = new GsonBuilder().create();
-        return gson.fromJson(reader, Database.class);
+        Database database = gson.fromJson(reader, Database.class);
+        database.restore(loadedFrom);
+        return database;
     }
 }
@@ -15,6 +15,9 @@ import java.util.Objects;
 public class Element implements Serializable {
     private String value;
     private String column;
+    // Set instead of value when the column is dictionary-encoded
+    private Integer code;
+    private transient ValueDictionary dictionary;
 
     Element(String value, String column) {
         this.value = value;
@@ -23,33 +26,34 @@ public class Element implements Serializable {
 
     @JsonIgnore
     public Integer getAsInteger() {
-        return Integer.parseInt(value);
+        return Integer.parseInt(getValue());
     }
 
     @JsonIgnore
     public Float getAsFloat() {
-        return Float.parseFloat(value);
+        return Float.parseFloat(getValue());
     }
 
     @JsonIgnore
     public char getAsCharacter() throws Exception {
+        String value = getValue();
         if (value.length() != 1) throw new Exception("Invalid character value");
         return value.charAt(0);
     }
 
     @JsonIgnore
     public String getAsString() {
-        return value;
+        return getValue();
     }
 
     @JsonIgnore
     public Date getAsDate() throws ParseException {
-        return new SimpleDateFormat("dd-MM-yyyy").parse(value);
+        return new SimpleDateFormat("dd-MM-yyyy").parse(getValue());
     }
 
     @JsonIgnore
     public Date[] getAsDateRange() throws Exception {
-        String[] match = Regex.match(value, "([^\\s]+)\\.\\.\\.([^\\s]+)");
+        String[] match = Regex.match(getValue(), "([^\\s]+)\\.\\.\\.([^\\s]+)");
         if (match == null) throw new Exception("Invalid time range value");
 
         SimpleDateFormat dateFormat = new SimpleDateFormat("dd-MM-yyyy");
@@ -66,15 +70,27 @@ public class Element implements Serializable {
     }
 
     public String getValue() {
-        return value;
+        return code == null ? value : dictionary.decode(code);
     }
 
-    void setValue(String value) {
-        this.value = value;
+    boolean hasCode(int code) {
+        return this.code != null && this.code == code;
+    }
+
+    // Only called before the element is visible to readers; it's also used to reattach the
+    // dictionary to an already encoded element after reading. A closed dictionary takes no new
+    // values, so a plain value stays plain.
+    void encode(ValueDictionary dictionary) {
+        this.dictionary = dictionary;
+        if (value == null || dictionary.isClosed()) return;
+
+        code = dictionary.encode(value);
+        value = null;
     }
 
     void validate(Table table) throws Exception {
         Column column = table.getColumn(this.column);
+        String value = getValue();
 
         if (value == null) {
             if (column.isNullAllowed()) return;
@@ -96,6 +112,7 @@ public class Element implements Serializable {
     }
 
     public boolean equals(String other) {
+        String value = getValue();
         if (other == null) return value == null;
         if (value == null) return other.equals("null");
         return value.equals(other);
@@ -106,7 +123,7 @@ public class Element implements Serializable {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Element element = (Element) o;
-        return Objects.equals(value, element.value) &&
+        return Objects.equals(getValue(), element.getValue()) &&
                 Objects.equals(column, element.column);
     }
 
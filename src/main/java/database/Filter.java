@@ -0,0 +1,85 @@
+package database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+// Conjunction of single-column conditions. Besides testing a single row, it can be applied to a
+// block of rows at once: each condition runs over one column of the block and clears the bits of
+// the rows it rejects in the selection bitmap, so later conditions only visit the surviving rows.
+class Filter implements Predicate<Row> {
+    static final int BLOCK_SIZE = 1024;
+
+    private final List<Integer> ordinals = new ArrayList<>();
+    private final List<Predicate<Element>> conditions = new ArrayList<>();
+
+    // For equality conditions the column and value, used for zone maps and binding; null otherwise
+    private final List<Column> equalColumns = new ArrayList<>();
+    private final List<String> equalValues = new ArrayList<>();
+
+    Filter add(int ordinal, Predicate<Element> condition) {
+        return add(ordinal, condition, null, null);
+    }
+
+    Filter addEqual(Column column, String value) {
+        return add(column.getOrdinal(), element -> element.equals(value), column, value);
+    }
+
+    private Filter add(int ordinal, Predicate<Element> condition, Column column, String value) {
+        ordinals.add(ordinal);
+        conditions.add(condition);
+        equalColumns.add(column);
+        equalValues.add(value);
+        return this;
+    }
+
+    // Copy whose equality conditions compare dictionary codes where the table has them. Scans bind
+    // after taking their snapshot, so the codes are valid for every row the scan can see.
+    Filter bind(Table table) {
+        Filter result = new Filter();
+        for (int i = 0; i < conditions.size(); i++) {
+            Column column = equalColumns.get(i);
+            if (column == null) {
+                result.add(ordinals.get(i), conditions.get(i));
+            } else {
+                result.add(ordinals.get(i), table.equalTo(column, equalValues.get(i)), column, equalValues.get(i));
+            }
+        }
+        return result;
+    }
+
+    boolean mayMatch(ZoneMap zone) {
+        for (int i = 0; i < equalColumns.size(); i++) {
+            if (equalColumns.get(i) != null && !zone.mayContain(equalColumns.get(i), equalValues.get(i))) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean test(Row row) {
+        for (int i = 0; i < conditions.size(); i++) {
+            if (!conditions.get(i).test(row.getElement(ordinals.get(i)))) return false;
+        }
+        return true;
+    }
+
+    // Rows of the block start at position from; bit n of the selection stands for row from + n
+    void apply(List<Row> rows, int from, long[] selection) {
+        for (int i = 0; i < conditions.size(); i++) {
+            int ordinal = ordinals.get(i);
+            Predicate<Element> condition = conditions.get(i);
+
+            for (int word = 0; word < selection.length; word++) {
+                long bits = selection[word];
+                while (bits != 0) {
+                    int bit = Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+
+                    if (!condition.test(rows.get(from + (word << 6) + bit).getElement(ordinal))) {
+                        selection[word] &= ~(1L << bit);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package database;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+
+// Append-only row list that readers may scan while a writer appends: a grown array is swapped in
+// as a whole, so every position below a published size stays readable without locking
+class HeapRowList extends AbstractList<Row> {
+    private volatile Row[] elements;
+    private int size;
+
+    HeapRowList(Collection<Row> rows) {
+        elements = rows.toArray(new Row[0]);
+        size = elements.length;
+        if (elements.length < 16) elements = Arrays.copyOf(elements, 16);
+    }
+
+    @Override
+    public Row get(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        return elements[index];
+    }
+
+    @Override
+    public boolean add(Row row) {
+        Row[] current = elements;
+        if (size == current.length) {
+            current = Arrays.copyOf(current, size * 2);
+            elements = current;
+        }
+        current[size++] = row;
+        modCount++;
+        return true;
+    }
+
+    // Only the unpublished tail may be removed, when a transaction fails to commit
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        if (toIndex != size) throw new UnsupportedOperationException("Only trailing rows can be removed");
+        Arrays.fill(elements, fromIndex, toIndex, null);
+        size = fromIndex;
+        modCount++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
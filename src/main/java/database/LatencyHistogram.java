@@ -0,0 +1,67 @@
+package database;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counts durations in buckets of powers of two: bucket k holds those of at most 2^k ns and more
+// than half that, so that its upper bound is a Prometheus "le" bound. Recording is a few atomic
+// adds and never allocates; quantiles are upper bounds.
+class LatencyHistogram {
+    static final int BUCKETS = 64;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(bucketOf(nanos));
+        count.increment();
+        sum.add(nanos);
+
+        long previous;
+        while (nanos > (previous = max.get()) && !max.compareAndSet(previous, nanos)) {
+            // Another thread recorded a new maximum meanwhile
+        }
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    long getSum() {
+        return sum.sum();
+    }
+
+    long getMax() {
+        return max.get();
+    }
+
+    long getBucketCount(int bucket) {
+        return counts.get(bucket);
+    }
+
+    // Smallest bucket bound below which at least the given share of the durations fall
+    long quantile(double share) {
+        long total = getCount();
+        if (total == 0) return 0;
+
+        long wanted = (long) Math.ceil(share * total);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= wanted) return Math.min(upperBound(bucket), getMax());
+        }
+        return getMax();
+    }
+
+    static int bucketOf(long nanos) {
+        return nanos == 0 ? 0 : BUCKETS - Long.numberOfLeadingZeros(nanos - 1);
+    }
+
+    static long upperBound(int bucket) {
+        return bucket >= BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+}
@@ -0,0 +1,35 @@
+package database;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Numbers the changes made to a database in the order they were applied and hands them to
+// listeners. An entry is one statement, or all the statements of a committed transaction.
+public class MutationLog {
+    public interface Listener {
+        // Called with the change still locked in, so it must not block
+        void applied(long sequence, List<String> statements);
+    }
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private long sequence;
+
+    synchronized void append(List<String> statements) {
+        sequence++;
+        for (Listener listener : listeners) listener.applied(sequence, statements);
+    }
+
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    // Returns the sequence of the last entry the listener won't be told about
+    synchronized long addListener(Listener listener) {
+        listeners.add(listener);
+        return sequence;
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+}
@@ -0,0 +1,38 @@
+package database;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Hands out direct buffers for off-heap tables and keeps them within a process-wide budget
+public class OffHeapAllocator {
+    private static volatile long budget = Long.getLong("database.offheap.budget", 1L << 30);
+    private static final AtomicLong bytesInUse = new AtomicLong();
+
+    private OffHeapAllocator() {
+    }
+
+    public static long getBudget() {
+        return budget;
+    }
+
+    public static void setBudget(long value) {
+        budget = value;
+    }
+
+    public static long getBytesInUse() {
+        return bytesInUse.get();
+    }
+
+    static ByteBuffer allocate(int capacity) throws Exception {
+        long used = bytesInUse.addAndGet(capacity);
+        if (used > budget) {
+            bytesInUse.addAndGet(-capacity);
+            throw new Exception(String.format("Off-heap memory budget of %d bytes is exhausted", budget));
+        }
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    static void release(ByteBuffer buffer) {
+        bytesInUse.addAndGet(-buffer.capacity());
+    }
+}
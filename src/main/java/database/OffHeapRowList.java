@@ -0,0 +1,130 @@
+package database;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Append-only row list whose values live in direct buffers; the heap only keeps one long handle
+// per row. Rows are materialized on access. As with HeapRowList, readers may scan published
+// positions while a writer appends.
+class OffHeapRowList extends AbstractList<Row> {
+    static final int SEGMENT_SIZE = 1 << 20;
+
+    private final String[] columnNames;
+
+    private final List<ByteBuffer> segments = new CopyOnWriteArrayList<>();
+    private volatile long[] handles = new long[16];
+    private int size;
+
+    OffHeapRowList(String[] columnNames, Collection<Row> rows) {
+        this.columnNames = columnNames;
+        try {
+            addAll(rows);
+        } catch (RuntimeException | Error e) {
+            release();
+            throw e;
+        }
+    }
+
+    @Override
+    public Row get(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+
+        long handle = handles[index];
+        ByteBuffer segment = segments.get((int) (handle >>> 32)).duplicate();
+        segment.position((int) handle + 4);
+
+        ArrayList<Element> elements = new ArrayList<>(columnNames.length);
+        for (String columnName : columnNames) {
+            int length = segment.getInt();
+            String value = null;
+            if (length >= 0) {
+                byte[] bytes = new byte[length];
+                segment.get(bytes);
+                value = new String(bytes, StandardCharsets.UTF_8);
+            }
+            elements.add(new Element(value, columnName));
+        }
+        return new Row(elements);
+    }
+
+    @Override
+    public boolean add(Row row) {
+        long handle = write(row);
+
+        long[] current = handles;
+        if (size == current.length) {
+            current = Arrays.copyOf(current, size * 2);
+            handles = current;
+        }
+        current[size++] = handle;
+        modCount++;
+        return true;
+    }
+
+    // Only the unpublished tail may be removed, when a transaction fails to commit; its bytes stay
+    // in the segments until the table is compacted
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        if (toIndex != size) throw new UnsupportedOperationException("Only trailing rows can be removed");
+        size = fromIndex;
+        modCount++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    // Gives the segments back to the allocator budget once the table has switched to another list;
+    // readers still scanning this one keep the buffers reachable until they finish
+    void release() {
+        for (ByteBuffer segment : segments) OffHeapAllocator.release(segment);
+    }
+
+    private long write(Row row) {
+        byte[][] values = new byte[columnNames.length][];
+        int length = 4;
+        for (int i = 0; i < columnNames.length; i++) {
+            String value = row.getElement(i).getValue();
+            if (value != null) {
+                values[i] = value.getBytes(StandardCharsets.UTF_8);
+                length += values[i].length;
+            }
+            length += 4;
+        }
+
+        ByteBuffer segment = segmentFor(length);
+        int offset = segment.position();
+
+        segment.putInt(length);
+        for (byte[] value : values) {
+            if (value == null) {
+                segment.putInt(-1);
+            } else {
+                segment.putInt(value.length);
+                segment.put(value);
+            }
+        }
+
+        return ((long) (segments.size() - 1) << 32) | offset;
+    }
+
+    private ByteBuffer segmentFor(int length) {
+        ByteBuffer last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (last != null && last.remaining() >= length) return last;
+
+        try {
+            ByteBuffer segment = OffHeapAllocator.allocate(Math.max(SEGMENT_SIZE, length));
+            segments.add(segment);
+            return segment;
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+}
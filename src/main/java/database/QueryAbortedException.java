@@ -0,0 +1,8 @@
+package database;
+
+// Unchecked, so that it can leave the row callbacks of a scan
+class QueryAbortedException extends RuntimeException {
+    QueryAbortedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,128 @@
+package database;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// Id, deadline and cancel flag of a query, visible to the scan loops of the thread running it, which
+// also count what they do into it for QueryMetrics and the SlowQueryLog. A write that has begun to
+// apply its changes can no longer be stopped, so that it never goes through after its client was
+// told that it failed.
+class QueryContext {
+    private static final ThreadLocal<QueryContext> current = new ThreadLocal<>();
+
+    private static final int RUNNING = 0;
+    private static final int APPLYING = 1;
+    private static final int CANCELLED = 2;
+    private static final int TIMED_OUT = 3;
+
+    private final long id;
+    private final String text;
+    private final long deadline;
+    private final boolean limited;
+    private final AtomicInteger state = new AtomicInteger(RUNNING);
+    private final long submittedAt;
+    // 0 while the query waits for a thread
+    private volatile long startedAt;
+
+    // Only touched by the thread running the query
+    long rowsScanned;
+    long rowsReturned;
+    long blocksScanned;
+    long blocksSkipped;
+    // Spent waiting for the catalog and table locks
+    long lockWaitNanos;
+
+    // Without a timeout, above 0, the query runs until it ends or is cancelled
+    QueryContext(long id, String text, long timeoutMillis) {
+        this.id = id;
+        this.text = text;
+        this.submittedAt = System.nanoTime();
+        this.limited = timeoutMillis > 0;
+        this.deadline = submittedAt + timeoutMillis * 1_000_000;
+    }
+
+    // Between the statements of a batch, which share the context
+    void resetCounters() {
+        rowsScanned = 0;
+        rowsReturned = 0;
+        blocksScanned = 0;
+        blocksSkipped = 0;
+        lockWaitNanos = 0;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    String getText() {
+        return text;
+    }
+
+    boolean isStarted() {
+        return startedAt != 0;
+    }
+
+    // Since the query was handed to the executor
+    long getElapsedNanos() {
+        return System.nanoTime() - submittedAt;
+    }
+
+    // Both tell whether the query is stopped, which it isn't once it applies its changes
+    boolean cancel() {
+        return stop(CANCELLED);
+    }
+
+    boolean timeOut() {
+        return stop(TIMED_OUT);
+    }
+
+    private boolean stop(int reason) {
+        state.compareAndSet(RUNNING, reason);
+        return state.get() != APPLYING;
+    }
+
+    // How long the query waited for a thread
+    long getQueuedNanos() {
+        return startedAt - submittedAt;
+    }
+
+    Result call(Supplier<Result> query) {
+        startedAt = System.nanoTime();
+        current.set(this);
+        try {
+            check();
+            return query.get();
+        } finally {
+            current.remove();
+        }
+    }
+
+    // Null outside of the query executor
+    static QueryContext current() {
+        return current.get();
+    }
+
+    // Called by long loops of the running query, if any; stops it by throwing
+    static void checkCurrent() {
+        QueryContext context = current.get();
+        if (context != null) context.check();
+    }
+
+    // Called by writes once they hold their locks, before they change anything; past it the query
+    // runs to its end
+    static void beginApplying() {
+        QueryContext context = current.get();
+        if (context == null) return;
+
+        context.check();
+        if (!context.state.compareAndSet(RUNNING, APPLYING)) context.check();
+    }
+
+    void check() {
+        int state = this.state.get();
+        if (state == CANCELLED) throw new QueryAbortedException(String.format("Query %d was cancelled", id));
+        if (state == TIMED_OUT || state == RUNNING && limited && System.nanoTime() - deadline > 0) {
+            throw new QueryAbortedException(String.format("Query %d ran out of time", id));
+        }
+    }
+}
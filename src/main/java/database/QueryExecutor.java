@@ -0,0 +1,134 @@
+package database;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// Runs queries on pools of their own, one per kind of query, so that a few expensive ones can't
+// take every thread. Each pool has a bounded queue; when it is full the query is turned down
+// right away instead of piling up. Streamed queries, which have no deadline and run as slowly
+// as their client reads, have a pool of their own too, so stalled clients only hold up others
+// streaming.
+public class QueryExecutor {
+    public enum Kind {
+        READ,
+        WRITE,
+        // Queries whose result grows with the product of table sizes
+        HEAVY,
+        // Queries handing their rows to a client as it reads them
+        STREAM
+    }
+
+    static final QueryExecutor shared = new QueryExecutor(
+            Integer.getInteger("database.executor.read", Runtime.getRuntime().availableProcessors()),
+            Integer.getInteger("database.executor.write", 2),
+            Integer.getInteger("database.executor.heavy", 1),
+            Integer.getInteger("database.executor.stream", 4),
+            Integer.getInteger("database.executor.queue", 256),
+            Long.getLong("database.executor.timeout", 60_000),
+            Boolean.getBoolean("database.executor.virtual"));
+
+    private final Map<Kind, ThreadPoolExecutor> pools = new EnumMap<>(Kind.class);
+    private final ConcurrentMap<Long, QueryContext> running = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final long timeoutMillis;
+
+    QueryExecutor(int readThreads, int writeThreads, int heavyThreads, int streamThreads, int queueSize, long timeoutMillis, boolean virtual) {
+        this.timeoutMillis = timeoutMillis;
+
+        pools.put(Kind.READ, pool("query-read", readThreads, queueSize, virtual));
+        pools.put(Kind.WRITE, pool("query-write", writeThreads, queueSize, virtual));
+        pools.put(Kind.HEAVY, pool("query-heavy", heavyThreads, queueSize, virtual));
+        pools.put(Kind.STREAM, pool("query-stream", streamThreads, queueSize, virtual));
+    }
+
+    static Kind kindOf(Statement statement) {
+        if (statement.getRegex() == QueryRegex.CARTESIAN_PRODUCT || statement.getRegex() == QueryRegex.CREATE_VIEW) return Kind.HEAVY;
+        return statement.isReadOnly() ? Kind.READ : Kind.WRITE;
+    }
+
+    // A batch is as heavy as the heaviest of its statements; unparsable ones are left out
+    static Kind kindOf(Collection<Statement> statements) {
+        Kind result = Kind.READ;
+        for (Statement statement : statements) {
+            if (statement != null && kindOf(statement).compareTo(result) > 0) result = kindOf(statement);
+        }
+        return result;
+    }
+
+    // Waits for the query at most until its deadline; a query still running then is told to stop,
+    // unless it is a write that has begun to apply its changes, which is waited for to the end. The
+    // text is what SHOW QUERIES lists for it.
+    Result run(Kind kind, String text, Supplier<Result> query) {
+        return run(kind, text, true, query);
+    }
+
+    // Unlimited queries have no deadline and only stop when they end or are cancelled
+    Result run(Kind kind, String text, boolean limited, Supplier<Result> query) {
+        QueryContext context = new QueryContext(nextId.incrementAndGet(), text, limited ? timeoutMillis : 0);
+        running.put(context.getId(), context);
+
+        try {
+            Future<Result> future = pools.get(kind).submit(() -> context.call(query));
+            Result result;
+            try {
+                result = limited ? future.get(timeoutMillis, TimeUnit.MILLISECONDS) : future.get();
+            } catch (TimeoutException e) {
+                if (context.timeOut()) {
+                    return new Result(Result.Status.FAIL).setReport(String.format("Query %d ran out of time", context.getId())).setQueryId(context.getId());
+                }
+                result = future.get();
+            }
+            return result.setQueryId(context.getId());
+        } catch (RejectedExecutionException e) {
+            return new Result(Result.Status.FAIL).setReport(String.format("Too many %s queries are waiting, try again later", kind.name().toLowerCase())).setQueryId(context.getId());
+        } catch (InterruptedException | ExecutionException e) {
+            context.cancel();
+            return new Result(Result.Status.FAIL).setReport(e.getMessage()).setQueryId(context.getId());
+        } finally {
+            running.remove(context.getId());
+        }
+    }
+
+    // Queued and running queries, oldest first
+    List<QueryContext> getRunning() {
+        List<QueryContext> result = new ArrayList<>(running.values());
+        result.sort(Comparator.comparingLong(QueryContext::getId));
+        return result;
+    }
+
+    void cancel(long queryId) throws Exception {
+        QueryContext context = running.get(queryId);
+        if (context == null) throw new Exception(String.format("A query with the id '%d' isn't running", queryId));
+        if (!context.cancel()) throw new Exception(String.format("Query %d is applying its changes and can't be cancelled", queryId));
+    }
+
+    private static ThreadPoolExecutor pool(String name, int threads, int queueSize, boolean virtual) {
+        ThreadPoolExecutor result = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), threadFactory(name, virtual));
+        result.allowCoreThreadTimeOut(true);
+        return result;
+    }
+
+    // Virtual threads are used when asked for and the runtime has them (Java 21+); the pool size
+    // still bounds how many queries of a kind run at once
+    private static ThreadFactory threadFactory(String name, boolean virtual) {
+        if (virtual) {
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                builder = Class.forName("java.lang.Thread$Builder").getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+                return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                // Fall back to platform threads
+            }
+        }
+
+        AtomicLong count = new AtomicLong();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
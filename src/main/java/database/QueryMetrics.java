@@ -0,0 +1,270 @@
+package database;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Latencies and counts of the queries of one database, by statement type. The phases of a statement
+// are the wait for a thread of the query executor, parsing, executing (which includes resolving
+// the columns and predicate, as there is no separate plan) and saving the file after a change.
+// Recording only adds to counters allocated up front.
+public class QueryMetrics implements QueryMetricsMXBean {
+    public enum Phase {
+        QUEUE,
+        PARSE,
+        EXECUTE,
+        PERSIST
+    }
+
+    private static final QueryRegex[] STATEMENTS = QueryRegex.values();
+    private static final Phase[] PHASES = Phase.values();
+    // Buckets shown to Prometheus, from about 1 us to 34 s
+    private static final int FIRST_BUCKET = 10;
+    private static final int LAST_BUCKET = 35;
+
+    private final LatencyHistogram[][] latencies = new LatencyHistogram[STATEMENTS.length][PHASES.length];
+    private final LongAdder[] failures = adders(STATEMENTS.length);
+    private final LongAdder[] rowsScanned = adders(STATEMENTS.length);
+    private final LongAdder[] rowsReturned = adders(STATEMENTS.length);
+    private final LongAdder invalidQueries = new LongAdder();
+    private final LongAdder blocksScanned = new LongAdder();
+    private final LongAdder blocksSkipped = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder conditionalHits = new LongAdder();
+    private final LongAdder conditionalMisses = new LongAdder();
+
+    QueryMetrics() {
+        for (LatencyHistogram[] phases : latencies) {
+            for (int phase = 0; phase < phases.length; phase++) phases[phase] = new LatencyHistogram();
+        }
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] result = new LongAdder[count];
+        for (int i = 0; i < count; i++) result[i] = new LongAdder();
+        return result;
+    }
+
+    void record(QueryRegex statement, Phase phase, long nanos) {
+        latencies[statement.ordinal()][phase.ordinal()].record(nanos);
+    }
+
+    void recordResult(QueryRegex statement, Result result) {
+        if (result.getStatus() == Result.Status.FAIL) failures[statement.ordinal()].increment();
+    }
+
+    void recordInvalid() {
+        invalidQueries.increment();
+    }
+
+    void recordScan(QueryRegex statement, QueryContext context) {
+        rowsScanned[statement.ordinal()].add(context.rowsScanned);
+        rowsReturned[statement.ordinal()].add(context.rowsReturned);
+        blocksScanned.add(context.blocksScanned);
+        blocksSkipped.add(context.blocksSkipped);
+    }
+
+    void recordSave(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    // For front-ends answering conditional requests from what they know of the tables' versions
+    public void recordConditional(boolean notModified) {
+        (notModified ? conditionalHits : conditionalMisses).increment();
+    }
+
+    @Override
+    public Map<String, Long> getStatements() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (QueryRegex statement : STATEMENTS) {
+            long count = latencies[statement.ordinal()][Phase.PARSE.ordinal()].getCount();
+            if (count > 0) result.put(name(statement), count);
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getFailures() {
+        return byStatement(failures);
+    }
+
+    @Override
+    public long getInvalidQueries() {
+        return invalidQueries.sum();
+    }
+
+    @Override
+    public Map<String, Double> getMeanMillis() {
+        Map<String, Double> result = new LinkedHashMap<>();
+        forEachLatency((key, histogram) -> result.put(key, millis(histogram.getSum() / (double) histogram.getCount())));
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getP99Millis() {
+        Map<String, Double> result = new LinkedHashMap<>();
+        forEachLatency((key, histogram) -> result.put(key, millis(histogram.quantile(0.99))));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getRowsScanned() {
+        return byStatement(rowsScanned);
+    }
+
+    @Override
+    public Map<String, Long> getRowsReturned() {
+        return byStatement(rowsReturned);
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public double getZoneMapSkipRate() {
+        return rate(blocksSkipped.sum(), blocksScanned.sum());
+    }
+
+    @Override
+    public double getConditionalHitRate() {
+        return rate(conditionalHits.sum(), conditionalMisses.sum());
+    }
+
+    @Override
+    public long getOffHeapBytesInUse() {
+        return OffHeapAllocator.getBytesInUse();
+    }
+
+    // Everything as nested maps, for a JSON endpoint
+    public Map<String, Object> toMap() {
+        Map<String, Object> statements = new LinkedHashMap<>();
+        for (QueryRegex statement : STATEMENTS) {
+            int i = statement.ordinal();
+            if (latencies[i][Phase.PARSE.ordinal()].getCount() == 0) continue;
+
+            Map<String, Object> phases = new LinkedHashMap<>();
+            for (Phase phase : PHASES) {
+                LatencyHistogram histogram = latencies[i][phase.ordinal()];
+                if (histogram.getCount() == 0) continue;
+
+                Map<String, Object> latency = new LinkedHashMap<>();
+                latency.put("count", histogram.getCount());
+                latency.put("mean_ms", millis(histogram.getSum() / (double) histogram.getCount()));
+                latency.put("p50_ms", millis(histogram.quantile(0.5)));
+                latency.put("p99_ms", millis(histogram.quantile(0.99)));
+                latency.put("max_ms", millis(histogram.getMax()));
+                phases.put(phase.name().toLowerCase(), latency);
+            }
+
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("count", latencies[i][Phase.PARSE.ordinal()].getCount());
+            values.put("failures", failures[i].sum());
+            values.put("rows_scanned", rowsScanned[i].sum());
+            values.put("rows_returned", rowsReturned[i].sum());
+            values.put("latency", phases);
+            statements.put(name(statement), values);
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("statements", statements);
+        result.put("invalid_queries", getInvalidQueries());
+        result.put("bytes_written", getBytesWritten());
+        result.put("zone_map_blocks_scanned", blocksScanned.sum());
+        result.put("zone_map_blocks_skipped", blocksSkipped.sum());
+        result.put("zone_map_skip_rate", getZoneMapSkipRate());
+        result.put("conditional_hits", conditionalHits.sum());
+        result.put("conditional_misses", conditionalMisses.sum());
+        result.put("conditional_hit_rate", getConditionalHitRate());
+        result.put("off_heap_bytes_in_use", getOffHeapBytesInUse());
+        return result;
+    }
+
+    // The Prometheus text exposition format
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder();
+
+        out.append("# HELP database_query_seconds Time spent in each phase of a statement\n");
+        out.append("# TYPE database_query_seconds histogram\n");
+        forEachLatency((key, histogram) -> {
+            String labels = String.format("statement=\"%s\",phase=\"%s\"", key.substring(0, key.indexOf('.')), key.substring(key.indexOf('.') + 1));
+
+            long cumulative = 0;
+            for (int bucket = 0; bucket <= LAST_BUCKET; bucket++) {
+                cumulative += histogram.getBucketCount(bucket);
+                if (bucket < FIRST_BUCKET) continue;
+                out.append(String.format(Locale.ROOT, "database_query_seconds_bucket{%s,le=\"%s\"} %d\n", labels, seconds(LatencyHistogram.upperBound(bucket)), cumulative));
+            }
+            out.append(String.format(Locale.ROOT, "database_query_seconds_bucket{%s,le=\"+Inf\"} %d\n", labels, histogram.getCount()));
+            out.append(String.format(Locale.ROOT, "database_query_seconds_sum{%s} %s\n", labels, seconds(histogram.getSum())));
+            out.append(String.format(Locale.ROOT, "database_query_seconds_count{%s} %d\n", labels, histogram.getCount()));
+        });
+
+        counter(out, "database_query_failures_total", "Statements that failed", getFailures());
+        counter(out, "database_rows_scanned_total", "Live rows examined by scans", getRowsScanned());
+        counter(out, "database_rows_returned_total", "Rows handed out in results", getRowsReturned());
+
+        out.append("# TYPE database_invalid_queries_total counter\n");
+        out.append("database_invalid_queries_total ").append(getInvalidQueries()).append('\n');
+        out.append("# TYPE database_save_bytes_total counter\n");
+        out.append("database_save_bytes_total ").append(getBytesWritten()).append('\n');
+        out.append("# TYPE database_zone_map_blocks_total counter\n");
+        out.append("database_zone_map_blocks_total{result=\"scanned\"} ").append(blocksScanned.sum()).append('\n');
+        out.append("database_zone_map_blocks_total{result=\"skipped\"} ").append(blocksSkipped.sum()).append('\n');
+        out.append("# TYPE database_conditional_requests_total counter\n");
+        out.append("database_conditional_requests_total{result=\"not_modified\"} ").append(conditionalHits.sum()).append('\n');
+        out.append("database_conditional_requests_total{result=\"full\"} ").append(conditionalMisses.sum()).append('\n');
+        out.append("# HELP database_off_heap_bytes Bytes held by off-heap row storage\n");
+        out.append("# TYPE database_off_heap_bytes gauge\n");
+        out.append("database_off_heap_bytes ").append(getOffHeapBytesInUse()).append('\n');
+        return out.toString();
+    }
+
+    private interface LatencyVisitor {
+        void visit(String key, LatencyHistogram histogram);
+    }
+
+    private void forEachLatency(LatencyVisitor visitor) {
+        for (QueryRegex statement : STATEMENTS) {
+            for (Phase phase : PHASES) {
+                LatencyHistogram histogram = latencies[statement.ordinal()][phase.ordinal()];
+                if (histogram.getCount() > 0) visitor.visit(name(statement) + "." + phase.name().toLowerCase(), histogram);
+            }
+        }
+    }
+
+    private Map<String, Long> byStatement(LongAdder[] adders) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (QueryRegex statement : STATEMENTS) {
+            long value = adders[statement.ordinal()].sum();
+            if (value > 0) result.put(name(statement), value);
+        }
+        return result;
+    }
+
+    private static void counter(StringBuilder out, String name, String help, Map<String, Long> values) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        for (Map.Entry<String, Long> entry : values.entrySet()) {
+            out.append(name).append("{statement=\"").append(entry.getKey()).append("\"} ").append(entry.getValue()).append('\n');
+        }
+    }
+
+    private static String name(QueryRegex statement) {
+        return statement.name().toLowerCase();
+    }
+
+    private static double millis(double nanos) {
+        return nanos / 1_000_000;
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1_000_000_000.0);
+    }
+
+    private static double rate(long hits, long misses) {
+        return hits + misses == 0 ? 0 : hits / (double) (hits + misses);
+    }
+}
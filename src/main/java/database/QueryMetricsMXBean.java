@@ -0,0 +1,33 @@
+package database;
+
+import java.util.Map;
+
+// What QueryMetrics shows over JMX. Maps are keyed by statement type, as in QueryRegex, or by
+// statement type and phase, like "select_rows.execute".
+public interface QueryMetricsMXBean {
+
+    Map<String, Long> getStatements();
+
+    Map<String, Long> getFailures();
+
+    long getInvalidQueries();
+
+    Map<String, Double> getMeanMillis();
+
+    Map<String, Double> getP99Millis();
+
+    Map<String, Long> getRowsScanned();
+
+    Map<String, Long> getRowsReturned();
+
+    long getBytesWritten();
+
+    // Share of the blocks of filtered scans that zone maps ruled out
+    double getZoneMapSkipRate();
+
+    // Share of conditional requests answered as not modified
+    double getConditionalHitRate();
+
+    // Held by the off-heap row storage of every database in the process, see OffHeapAllocator
+    long getOffHeapBytesInUse();
+}
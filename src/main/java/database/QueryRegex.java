@@ -12,10 +12,32 @@ public enum QueryRegex {
 
     // CREATE TABLE <tablename> (TYPE1 column1, TYPE2 column2,...)
     CREATE_TABLE("^\\s*CREATE\\s+TABLE\\s+([^\\s]+)\\s+\\(([^\\)]+)\\)\\s*$"),
-    // DROP TABLE <tablename>
+    // CREATE MATERIALIZED VIEW <viewname> AS SELECT (column1, column2,...) FROM <tablename> [WHERE column1=value1,...]
+    CREATE_VIEW("^\\s*CREATE\\s+MATERIALIZED\\s+VIEW\\s+([^\\s]+)\\s+AS\\s+SELECT\\s+(.+)\\s+FROM\\s+([^\\s]+)(?:\\s+WHERE\\s+([^\\s]+))?\\s*$"),
+    // DROP TABLE <tablename>, also used for views; a table with views can only be dropped after them
     DROP_TABLE("^\\s*DROP\\s+TABLE\\s+([^\\s]+)\\s*$"),
+    // ALTER TABLE <tablename> STORAGE <HEAP|OFF_HEAP>
+    ALTER_STORAGE("^\\s*ALTER\\s+TABLE\\s+([^\\s]+)\\s+STORAGE\\s+([^\\s]+)\\s*$"),
     // LIST TABLES
     LIST_TABLES("^\\s*(LIST\\s+TABLES)\\s*$"),
+    // SHOW REPLICATION
+    SHOW_REPLICATION("^\\s*(SHOW\\s+REPLICATION)\\s*$"),
+
+    // SHOW SLOW QUERIES
+    SHOW_SLOW_QUERIES("^\\s*(SHOW\\s+SLOW\\s+QUERIES)\\s*$"),
+
+    // BEGIN
+    BEGIN("^\\s*(BEGIN)\\s*$"),
+    // COMMIT
+    COMMIT("^\\s*(COMMIT)\\s*$"),
+    // ROLLBACK
+    ROLLBACK("^\\s*(ROLLBACK)\\s*$"),
+    // SHOW QUERIES
+    SHOW_QUERIES("^\\s*(SHOW\\s+QUERIES)\\s*$"),
+    // CANCEL <queryId>
+    CANCEL("^\\s*CANCEL\\s+([0-9]+)\\s*$"),
+    // SUBSCRIBE <tablename> [WHERE column1=value1, column2=value2,...]
+    SUBSCRIBE("^\\s*SUBSCRIBE\\s+([^\\s]+)(?:\\s+WHERE\\s+([^\\s]+))?\\s*$"),
 
     // CARTESIAN PRODUCT <tablename1> BY <tablename2>
     CARTESIAN_PRODUCT("^\\s*CARTESIAN\\s+PRODUCT\\s+([^\\s]+)\\s+BY\\s+([^\\s]+)\\s*$");
@@ -12,6 +12,7 @@ public class Result implements Serializable {
     private Status status;
     private String report;
     private Collection<Row> rows;
+    private long queryId;
 
     Result(Status status) {
         this.status = status;
@@ -32,6 +33,16 @@ public class Result implements Serializable {
         return this;
     }
 
+    // Can be passed to CANCEL from another connection while the query runs
+    public long getQueryId() {
+        return queryId;
+    }
+
+    Result setQueryId(long queryId) {
+        this.queryId = queryId;
+        return this;
+    }
+
     public Collection<Row> getRows() {
         return rows;
     }
@@ -1,35 +1,118 @@
 package database;
 
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Objects;
+import java.util.List;
 
+@JsonAdapter(Row.GsonAdapter.class)
 public class Row implements Serializable {
-    private Map<String, Element> elements;
+    // Elements are laid out by position; for table rows the position is the column ordinal
+    private Element[] elements;
 
-    Row(Collection<Element> elements) {
-        this.elements = new HashMap<>();
-        for (Element element : elements) {
-            this.elements.put(element.getColumn(), element);
+    // Gson writes the elements as an object keyed by column name, as rows always were written, so
+    // database files and SOAP answers keep their layout; an array of elements is read as well
+    static class GsonAdapter implements TypeAdapterFactory {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            TypeAdapter<Element> elementAdapter = gson.getAdapter(Element.class);
+
+            return (TypeAdapter<T>) new TypeAdapter<Row>() {
+                @Override
+                public void write(JsonWriter out, Row row) throws IOException {
+                    if (row == null) {
+                        out.nullValue();
+                        return;
+                    }
+
+                    out.beginObject().name("elements").beginObject();
+                    for (Element element : row.elements) {
+                        out.name(element.getColumn());
+                        elementAdapter.write(out, element);
+                    }
+                    out.endObject().endObject();
+                }
+
+                @Override
+                public Row read(JsonReader in) throws IOException {
+                    if (in.peek() == JsonToken.NULL) {
+                        in.nextNull();
+                        return null;
+                    }
+
+                    List<Element> elements = new ArrayList<>();
+                    in.beginObject();
+                    while (in.hasNext()) {
+                        if (!in.nextName().equals("elements")) {
+                            in.skipValue();
+                        } else if (in.peek() == JsonToken.BEGIN_ARRAY) {
+                            in.beginArray();
+                            while (in.hasNext()) elements.add(elementAdapter.read(in));
+                            in.endArray();
+                        } else {
+                            in.beginObject();
+                            while (in.hasNext()) {
+                                in.nextName();
+                                elements.add(elementAdapter.read(in));
+                            }
+                            in.endObject();
+                        }
+                    }
+                    in.endObject();
+                    return new Row(elements);
+                }
+            };
         }
     }
 
+    Row(Collection<Element> elements) {
+        this.elements = elements.toArray(new Element[0]);
+    }
+
     public Element getElement(String columnName) {
-        return elements.get(columnName);
+        for (Element element : elements) {
+            if (element.getColumn().equals(columnName)) return element;
+        }
+        return null;
     }
 
     public Element getElement(Column column) {
         return getElement(column.getName());
     }
 
+    Element getElement(int ordinal) {
+        return elements[ordinal];
+    }
+
+    // Lays the elements out by the columns' ordinals, as rows read from a file are in the order they
+    // were written in; a column the row has no element for gets an empty one
+    void arrange(Collection<Column> columns) {
+        Element[] arranged = new Element[columns.size()];
+        for (Column column : columns) {
+            Element element = getElement(column.getName());
+            arranged[column.getOrdinal()] = element != null ? element : new Element(null, column.getName());
+        }
+        elements = arranged;
+    }
+
     public Collection<Element> getElements() {
-        return elements.values();
+        return Arrays.asList(elements);
     }
 
     public void validate(Table table) throws Exception {
-        for (Element element : getElements()) {
+        for (Element element : elements) {
             element.validate(table);
         }
     }
@@ -54,4 +137,4 @@ public class Row implements Serializable {
 //    public int hashCode() {
 //        return Objects.hash(elements);
 //    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,38 @@
+package database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+// One client's conversation with the database. Between BEGIN and COMMIT its row writes are kept
+// here instead of being applied, and nobody else sees them until the commit.
+public class Session {
+    private final String id = UUID.randomUUID().toString();
+
+    private List<Statement> writeSet;
+
+    public String getId() {
+        return id;
+    }
+
+    public synchronized boolean isInTransaction() {
+        return writeSet != null;
+    }
+
+    synchronized void begin() throws Exception {
+        if (writeSet != null) throw new Exception("A transaction is already open in this session");
+        writeSet = new ArrayList<>();
+    }
+
+    synchronized void add(Statement statement) {
+        writeSet.add(statement);
+    }
+
+    // Closes the transaction and hands over what it wrote
+    synchronized List<Statement> end() throws Exception {
+        if (writeSet == null) throw new Exception("No transaction is open in this session");
+        List<Statement> result = writeSet;
+        writeSet = null;
+        return result;
+    }
+}
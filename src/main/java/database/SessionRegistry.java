@@ -0,0 +1,25 @@
+package database;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Sessions of the front-ends that have no session handling of their own, looked up by id
+public class SessionRegistry {
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<>();
+
+    public Session open() {
+        Session session = new Session();
+        sessions.put(session.getId(), session);
+        return session;
+    }
+
+    public Session get(String id) throws Exception {
+        Session session = id == null ? null : sessions.get(id);
+        if (session == null) throw new Exception(String.format("A session with the id '%s' doesn't exist", id));
+        return session;
+    }
+
+    public void close(String id) {
+        sessions.remove(id);
+    }
+}
@@ -0,0 +1,230 @@
+package database;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Statements that took longer than a threshold, from being received to being answered. The latest
+// are kept for SHOW SLOW QUERIES; all of them go to a file, written by a thread of its own so that
+// queries never wait on it. When the file reaches its size it is rotated: file.1 is the previous
+// one, file.2 the one before, and so on. Settings are system properties:
+//
+//   database.slowlog.threshold  milliseconds, a negative value turns the log off  (1000)
+//   database.slowlog.path       the file                      (<database file>.slow.log)
+//   database.slowlog.size       bytes per file                                   (10485760)
+//   database.slowlog.files      rotated files kept besides the current one       (5)
+//   database.slowlog.kept       entries kept for SHOW SLOW QUERIES               (100)
+public class SlowQueryLog implements Closeable {
+    private static final long THRESHOLD_MILLIS = Long.getLong("database.slowlog.threshold", 1000);
+    private static final String PATH = System.getProperty("database.slowlog.path");
+    private static final long FILE_SIZE = Long.getLong("database.slowlog.size", 10 * 1024 * 1024);
+    private static final int FILES = Integer.getInteger("database.slowlog.files", 5);
+    private static final int KEPT = Integer.getInteger("database.slowlog.kept", 100);
+    // Entries waiting for the writer; more are dropped and counted rather than holding up queries
+    private static final int QUEUE_SIZE = 1024;
+
+    static final String[] COLUMNS = {"time", "query_id", "statement", "query", "status", "total_ms", "queue_ms", "parse_ms",
+            "execute_ms", "lock_ms", "persist_ms", "rows_scanned", "rows_returned", "access_path"};
+
+    static class Entry {
+        final long time = System.currentTimeMillis();
+        final long queryId;
+        final QueryRegex statement;
+        final String text;
+        final Result.Status status;
+        final long queueNanos;
+        final long parseNanos;
+        final long executeNanos;
+        final long lockNanos;
+        final long persistNanos;
+        final long rowsScanned;
+        final long rowsReturned;
+        final long blocksScanned;
+        final long blocksSkipped;
+
+        Entry(Statement statement, Result.Status status, QueryContext context, long executeNanos, long persistNanos) {
+            this.queryId = context.getId();
+            this.statement = statement.getRegex();
+            this.text = statement.getText();
+            this.status = status;
+            this.queueNanos = context.getQueuedNanos();
+            this.parseNanos = statement.getParseNanos();
+            this.executeNanos = executeNanos;
+            this.lockNanos = context.lockWaitNanos;
+            this.persistNanos = persistNanos;
+            this.rowsScanned = context.rowsScanned;
+            this.rowsReturned = context.rowsReturned;
+            this.blocksScanned = context.blocksScanned;
+            this.blocksSkipped = context.blocksSkipped;
+        }
+
+        long getTotalNanos() {
+            return queueNanos + parseNanos + executeNanos + persistNanos;
+        }
+
+        String[] values() {
+            return new String[]{
+                    new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date(time)),
+                    Long.toString(queryId),
+                    statement.name().toLowerCase(),
+                    normalize(text),
+                    status.name(),
+                    millis(getTotalNanos()),
+                    millis(queueNanos),
+                    millis(parseNanos),
+                    millis(executeNanos),
+                    millis(lockNanos),
+                    millis(persistNanos),
+                    Long.toString(rowsScanned),
+                    Long.toString(rowsReturned),
+                    accessPath()};
+        }
+
+        private String accessPath() {
+            if (statement == QueryRegex.CARTESIAN_PRODUCT) return "full scans of both tables";
+            if (blocksScanned + blocksSkipped == 0) return rowsScanned > 0 ? "full scan" : "none";
+            if (blocksSkipped == 0) return String.format("scan of all %d blocks", blocksScanned);
+            return String.format("zone maps, %d of %d blocks skipped", blocksSkipped, blocksScanned + blocksSkipped);
+        }
+    }
+
+    private final long thresholdNanos;
+    private final Deque<Entry> recent = new ArrayDeque<>();
+    private final BlockingQueue<Entry> pending;
+    private final LongAdder dropped = new LongAdder();
+    private final Path path;
+    private volatile boolean closed;
+
+    // With no database path, and no database.slowlog.path, the entries are only kept in memory
+    SlowQueryLog(String databasePath) {
+        this(databasePath, THRESHOLD_MILLIS);
+    }
+
+    SlowQueryLog(String databasePath, long thresholdMillis) {
+        thresholdNanos = thresholdMillis < 0 ? Long.MAX_VALUE : thresholdMillis * 1_000_000;
+
+        String file = PATH != null ? PATH : databasePath != null ? databasePath + ".slow.log" : null;
+        path = file == null || thresholdMillis < 0 ? null : Paths.get(file);
+        pending = path == null ? null : new ArrayBlockingQueue<>(QUEUE_SIZE);
+
+        if (path != null) {
+            Thread writer = new Thread(this::write, "slow-query-log");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    boolean isSlow(long nanos) {
+        return nanos >= thresholdNanos;
+    }
+
+    void add(Entry entry) {
+        synchronized (recent) {
+            recent.addFirst(entry);
+            if (recent.size() > KEPT) recent.removeLast();
+        }
+        if (pending != null && !closed && !pending.offer(entry)) dropped.increment();
+    }
+
+    // Newest first
+    List<Entry> getRecent() {
+        synchronized (recent) {
+            return new ArrayList<>(recent);
+        }
+    }
+
+    // Null when the entries are only kept in memory
+    Path getPath() {
+        return path;
+    }
+
+    // Entries that didn't reach the file because the writer was too far behind
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    // Takes no more entries for the file; the writer stops once it has written those it holds
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    // Polls rather than waits to be interrupted, which would close the file channel under a write
+    private void write() {
+        while (true) {
+            try {
+                Entry entry = pending.poll(100, TimeUnit.MILLISECONDS);
+                if (entry == null) {
+                    if (closed) return;
+                    continue;
+                }
+                rotateIfFull();
+                try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    // Whatever else came in meanwhile goes in the same write
+                    do {
+                        writer.write(format(entry));
+                    } while ((entry = pending.poll()) != null);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void rotateIfFull() throws IOException {
+        if (!Files.exists(path) || Files.size(path) < FILE_SIZE) return;
+
+        Files.deleteIfExists(rotated(FILES));
+        for (int i = FILES - 1; i >= 1; i--) {
+            if (Files.exists(rotated(i))) Files.move(rotated(i), rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (FILES > 0) {
+            Files.move(path, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(path);
+        }
+    }
+
+    private Path rotated(int index) {
+        return Paths.get(path + "." + index);
+    }
+
+    // One line of name=value pairs, the query last as it may hold spaces
+    private static String format(Entry entry) {
+        String[] values = entry.values();
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals("query")) continue;
+            line.append(COLUMNS[i]).append('=');
+            line.append(values[i].contains(" ") ? '"' + values[i] + '"' : values[i]).append(' ');
+        }
+        return line.append("query=").append(values[3]).append(System.lineSeparator()).toString();
+    }
+
+    // The statement with its values taken out, so that entries of the same query look the same
+    static String normalize(String text) {
+        return text.trim()
+                .replaceAll("(?i)(VALUES\\s*\\()[^)]*\\)", "$1?)")
+                .replaceAll("=[^,\\s)]+", "=?")
+                .replaceAll("(?i)^(CANCEL\\s+)[0-9]+", "$1?")
+                .replaceAll("\\s+", " ");
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+    }
+}
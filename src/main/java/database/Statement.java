@@ -0,0 +1,71 @@
+package database;
+
+import org.mentaregex.Regex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+// A query message matched against the first QueryRegex that accepts it
+class Statement {
+    private final String text;
+    private final QueryRegex regex;
+    private final ArrayList<String> matches;
+    private long parseNanos;
+
+    private Statement(String text, QueryRegex regex, ArrayList<String> matches) {
+        this.text = text;
+        this.regex = regex;
+        this.matches = matches;
+    }
+
+    static Statement parse(String queryMessage) throws Exception {
+        for (QueryRegex regex : QueryRegex.values()) {
+            String[] found = Regex.match(queryMessage, regex.getRegex());
+            if (found == null) continue;
+
+            ArrayList<String> matches = Arrays.stream(found).filter(Predicate.isEqual(null).negate()).map(String::trim).collect(Collectors.toCollection(ArrayList::new));
+            return new Statement(queryMessage, regex, matches);
+        }
+
+        throw new Exception("Invalid query syntax");
+    }
+
+    String getText() {
+        return text;
+    }
+
+    QueryRegex getRegex() {
+        return regex;
+    }
+
+    ArrayList<String> getMatches() {
+        return matches;
+    }
+
+    long getParseNanos() {
+        return parseNanos;
+    }
+
+    void setParseNanos(long value) {
+        parseNanos = value;
+    }
+
+    // Statements that only change rows of an existing table; these are the ones a transaction buffers
+    boolean isRowWrite() {
+        return regex == QueryRegex.INSERT_ROW || regex == QueryRegex.DELETE_ROWS || regex == QueryRegex.UPDATE_ROWS;
+    }
+
+    boolean isReadOnly() {
+        return regex == QueryRegex.SELECT_ROWS || regex == QueryRegex.LIST_TABLES || regex == QueryRegex.SHOW_REPLICATION || regex == QueryRegex.SHOW_SLOW_QUERIES || regex == QueryRegex.CARTESIAN_PRODUCT;
+    }
+
+    boolean isTableChange() {
+        return regex == QueryRegex.CREATE_TABLE || regex == QueryRegex.CREATE_VIEW || regex == QueryRegex.DROP_TABLE || regex == QueryRegex.ALTER_STORAGE;
+    }
+
+    String getTableName() {
+        return regex == QueryRegex.SELECT_ROWS ? matches.get(1) : matches.get(0);
+    }
+}
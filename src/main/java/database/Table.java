@@ -1,66 +1,665 @@
 package database;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 public class Table {
+    public enum Storage {
+        HEAP,
+        OFF_HEAP
+    }
+
+    // STR and CHAR columns stay dictionary-encoded until they see more distinct values than this
+    static final int MAX_DICTIONARY_SIZE = 256;
+    // Share of deleted rows after which the table is compacted in the background
+    static final double COMPACTION_THRESHOLD = 0.25;
+
+    private static final AtomicLong versions = new AtomicLong();
+
+    private static final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "table-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Everything a reader needs to see one version of the table. Row lists are append-only and
+    // tombstones are copied on write, so a snapshot stays valid while writers go on; old row
+    // versions are garbage-collected once compaction has dropped them and no snapshot refers to them.
+    private static class Snapshot {
+        final List<Row> rows;
+        final int size;
+        final Bitmap tombstones;
+        final List<ZoneMap> zones;
+
+        Snapshot(List<Row> rows, Bitmap tombstones, List<ZoneMap> zones) {
+            this.rows = rows;
+            this.size = rows.size();
+            this.tombstones = tombstones;
+            this.zones = zones;
+        }
+    }
+
+    // The rows of a snapshot as a list of their own, which rows appended later don't show up in
+    private static class SnapshotRows extends AbstractList<Row> {
+        final List<Row> rows;
+        final int size;
+
+        SnapshotRows(Snapshot snapshot) {
+            this.rows = snapshot.rows;
+            this.size = snapshot.size;
+        }
+
+        @Override
+        public Row get(int index) {
+            if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            return rows.get(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    private static class Savepoint {
+        final List<Row> rows;
+        final int size;
+        final Bitmap tombstones;
+        final int deletedCount;
+
+        Savepoint(List<Row> rows, Bitmap tombstones, int deletedCount) {
+            this.rows = rows;
+            this.size = rows.size();
+            this.tombstones = tombstones;
+            this.deletedCount = deletedCount;
+        }
+    }
+
     private String name;
 
     private List<Row> rows;
     private Map<String, Column> columns;
+    private Map<String, ValueDictionary> dictionaries;
+    private Storage storage = Storage.HEAP;
+    // Deleted rows and replaced row versions stay in place until compaction
+    private Bitmap tombstones;
+    // One summary per Filter.BLOCK_SIZE rows; dead rows are still counted until compaction
+    private List<ZoneMap> zones;
+    // Set when the table is a materialized view, which only changes with its base table
+    private View view;
+
+    // Writers to the same table take turns; readers never lock and scan the published snapshot
+    private transient ReentrantLock writeLock;
+    private transient volatile Snapshot snapshot;
+
+    private transient int deletedCount;
+    private transient boolean compactionScheduled;
+    // State to return to if the transaction being committed fails; nothing is published meanwhile
+    private transient Savepoint savepoint;
+    // Changes whenever a new snapshot is published; drawn from one counter so a table dropped and
+    // created again never repeats a version
+    private transient volatile long version;
+    // Row changes applied since the last publish, handed to the feed when they become visible. They
+    // are only recorded while the table has subscribers or views; otherwise they are just counted,
+    // so that the feed offsets still count every change.
+    private transient ChangeFeed feed;
+    private transient List<Change> changes = new ArrayList<>();
+    private transient int unrecorded;
+    private transient AtomicInteger subscribers = new AtomicInteger();
+    // Feed offset of the newest change that wasn't recorded; nobody can resume from before it
+    private transient volatile long unrecordedThrough;
+    // Materialized views of this table, brought up to date with its changes as they are published
+    private transient List<Table> views = new CopyOnWriteArrayList<>();
 
     Table(String name, Collection<Column> columns) {
         this.name = name;
 
-        this.rows = new ArrayList<>();
+        this.writeLock = new ReentrantLock();
+        this.rows = new HeapRowList(Collections.emptyList());
+        this.tombstones = new Bitmap();
+        this.zones = new CopyOnWriteArrayList<>();
 
-        this.columns = new HashMap<>();
+        this.columns = new LinkedHashMap<>();
         for (Column col : columns) {
+            col.setOrdinal(this.columns.size());
             this.columns.put(col.getName(), col);
         }
+
+        this.dictionaries = new ConcurrentHashMap<>();
+        for (Column col : columns) {
+            if (col.getType() == Column.Type.STR || col.getType() == Column.Type.CHAR) {
+                this.dictionaries.put(col.getName(), new ValueDictionary());
+            }
+        }
+
+        publish();
     }
 
-    public void insert(Map<Column, String> values) throws Exception {
-        ArrayList<Element> elements = new ArrayList<>();
-        getColumns().forEach(column -> elements.add(new Element(values.get(column), column.getName())));
+    void restore() {
+        writeLock = new ReentrantLock();
+        changes = new ArrayList<>();
+        subscribers = new AtomicInteger();
+        views = new CopyOnWriteArrayList<>();
+        dictionaries = dictionaries == null ? new ConcurrentHashMap<>() : new ConcurrentHashMap<>(dictionaries);
+        if (tombstones == null) tombstones = new Bitmap();
+        deletedCount = tombstones.cardinality();
 
-        Row row = new Row(elements);
-        row.validate(this);
+        int position = 0;
+        for (Column column : columns.values()) column.setOrdinal(position++);
+        for (Row row : rows) row.arrange(columns.values());
 
-        rows.add(row);
+        // Rows written after a dictionary was closed hold plain values, which stay so; only the codes
+        // written before get their dictionary back
+        for (Map.Entry<String, ValueDictionary> entry : dictionaries.entrySet()) {
+            entry.getValue().restore();
+
+            int ordinal = columns.get(entry.getKey()).getOrdinal();
+            for (Row row : rows) {
+                row.getElement(ordinal).encode(entry.getValue());
+            }
+        }
+
+        if (storage == null) storage = Storage.HEAP;
+        rows = storage == Storage.OFF_HEAP ? new OffHeapRowList(getColumnNames(), rows) : new HeapRowList(rows);
+
+        if (zones == null) {
+            rebuildZones();
+        } else {
+            zones = new CopyOnWriteArrayList<>(zones);
+        }
+
+        publish();
     }
 
-    public void update(Map<Column, String> values, Predicate<Row> predicate) throws Exception {
-        for (Map.Entry<Column, String> entry : values.entrySet()) {
-            new Element(entry.getValue(), entry.getKey().getName()).validate(this);
+    // Only for savedCopy
+    private Table() {
+    }
+
+    // The table as of its published snapshot, to be written out without holding the lock: rows never
+    // change once added and dictionaries only grow, so they are shared; zone maps are copied
+    Table savedCopy() {
+        writeLock.lock();
+        try {
+            Snapshot current = snapshot;
+            Table copy = new Table();
+            copy.name = name;
+            copy.rows = new SnapshotRows(current);
+            copy.columns = new LinkedHashMap<>(columns);
+            copy.dictionaries = new LinkedHashMap<>(dictionaries);
+            copy.storage = storage;
+            copy.tombstones = current.tombstones;
+            copy.zones = current.zones.stream().map(ZoneMap::new).collect(Collectors.toList());
+            copy.view = view;
+            return copy;
+        } finally {
+            writeLock.unlock();
         }
+    }
 
-        for (Row row : rows) {
-            if (!predicate.test(row)) continue;
+    void setChangeFeed(ChangeFeed feed) {
+        this.feed = feed;
+    }
+
+    // Registered under the write lock, so every change after the start offset is either published
+    // before it or recorded for the subscription
+    ChangeFeed.Subscription subscribe(Predicate<Row> predicate, long from, ChangeFeed.Listener listener) throws Exception {
+        writeLock.lock();
+        try {
+            long start = from < 0 ? feed.getOffset() : from;
+            if (start < unrecordedThrough) {
+                throw new Exception(String.format("Changes after the offset %d are no longer kept", start));
+            }
+            subscribers.incrementAndGet();
+            return feed.subscribe(name, predicate, start, listener, subscribers::decrementAndGet);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private boolean recording() {
+        return feed != null && (subscribers.get() > 0 || !views.isEmpty());
+    }
+
+    View getView() {
+        return view;
+    }
+
+    List<Table> getViews() {
+        return views;
+    }
+
+    // Makes this empty table a view of base, filling it with the rows base holds now. Taken with the
+    // catalog locked, so that no change to base is missed.
+    void materialize(View view, Table base) {
+        writeLock.lock();
+        try {
+            this.view = view;
+
+            Snapshot current = base.snapshot;
+            for (int i = 0; i < current.size; i++) {
+                if (current.tombstones.get(i)) continue;
+                Row projected = view.project(current.rows.get(i));
+                if (projected == null) continue;
+
+                for (Element element : projected.getElements()) encode(element);
+                append(projected);
+            }
+
+            closeOverflowedDictionaries();
+            publish();
+            base.views.add(this);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Applies the changes of the base table to this view by deltas, under the view's own lock; an
+    // update is a row leaving the view, a row entering it, or both
+    void maintain(List<Change> baseChanges) {
+        writeLock.lock();
+        try {
+            Bitmap next = tombstones.copy();
+            for (Change change : baseChanges) {
+                Row before = view.project(change.getBefore());
+                Row after = view.project(change.getAfter());
+                if (before == null && after == null) continue;
+                if (before != null && after != null && sameValues(before, after)) continue;
+
+                if (before != null) {
+                    int position = findLive(before, next);
+                    if (position >= 0) {
+                        next.set(position);
+                        deletedCount++;
+                    }
+                }
+
+                Change.Type type = before == null ? Change.Type.INSERT : after == null ? Change.Type.DELETE : Change.Type.UPDATE;
+                if (recording()) changes.add(new Change(name, type, before, after == null ? null : detach(after)));
+                else unrecorded++;
+
+                if (after != null) {
+                    for (Element element : after.getElements()) encode(element);
+                    append(after);
+                }
+            }
+            tombstones = next;
+
+            closeOverflowedDictionaries();
+            publish();
+            scheduleCompaction();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    // Taken by Database.save so that the file sees no half-applied statement
+    Lock writeLock() {
+        return writeLock;
+    }
+
+    // Statements of a committing transaction run between beginBatch and endBatch, which keep the write
+    // lock; readers go on seeing the previous snapshot until all of them have been applied
+    void beginBatch() {
+        writeLock.lock();
+        savepoint = new Savepoint(rows, tombstones, deletedCount);
+    }
+
+    void endBatch(boolean commit) {
+        try {
+            if (!commit) {
+                // Appended rows were never published, so they can simply be cut off again
+                rows.subList(savepoint.size, rows.size()).clear();
+                tombstones = savepoint.tombstones;
+                deletedCount = savepoint.deletedCount;
+                changes.clear();
+                unrecorded = 0;
+            }
+            savepoint = null;
+            publish();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    public void setStorage(Storage storage) {
+        writeLock.lock();
+        try {
+            if (this.storage == storage) return;
+
+            if (storage == Storage.OFF_HEAP) {
+                // Off-heap rows are stored as plain values, so the dictionaries are not needed there
+                rows = new OffHeapRowList(getColumnNames(), rows);
+                dictionaries.clear();
+            } else {
+                List<Row> heapRows = new HeapRowList(rows);
+                ((OffHeapRowList) rows).release();
+                rows = heapRows;
+            }
+
+            this.storage = storage;
+            publish();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void insert(Map<Column, String> values) throws Exception {
+        writeLock.lock();
+        try {
+            ArrayList<Element> elements = new ArrayList<>();
+            getColumns().forEach(column -> elements.add(new Element(values.get(column), column.getName())));
+
+            Row row = new Row(elements);
+            row.validate(this);
+
+            for (Element element : elements) {
+                encode(element);
+            }
 
+            append(row);
+            if (recording()) changes.add(new Change(name, Change.Type.INSERT, null, detach(row)));
+            else unrecorded++;
+            closeOverflowedDictionaries();
+            publish();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Appends a new version of every matching row and tombstones the old one
+    public void update(Map<Column, String> values, Predicate<Row> predicate) throws Exception {
+        writeLock.lock();
+        try {
             for (Map.Entry<Column, String> entry : values.entrySet()) {
-                row.getElement(entry.getKey()).setValue(entry.getValue());
+                new Element(entry.getValue(), entry.getKey().getName()).validate(this);
             }
+
+            Snapshot current = new Snapshot(rows, tombstones, zones);
+            Bitmap next = tombstones.copy();
+            ArrayList<Row> versions = new ArrayList<>();
+            // Kept aside like the tombstones until the scan is through, as an aborted one must change nothing
+            List<Change> found = new ArrayList<>();
+            boolean recording = recording();
+
+            forEachMatch(current, predicate, i -> {
+                ArrayList<Element> elements = new ArrayList<>(current.rows.get(i).getElements());
+                for (Map.Entry<Column, String> entry : values.entrySet()) {
+                    Element element = new Element(entry.getValue(), entry.getKey().getName());
+                    encode(element);
+                    elements.set(entry.getKey().getOrdinal(), element);
+                }
+
+                Row updated = new Row(elements);
+                versions.add(updated);
+                next.set(i);
+                if (recording) found.add(new Change(name, Change.Type.UPDATE, detach(current.rows.get(i)), detach(updated)));
+            });
+
+            for (Row row : versions) append(row);
+            changes.addAll(found);
+            if (!recording) unrecorded += versions.size();
+            tombstones = next;
+            deletedCount += versions.size();
+
+            closeOverflowedDictionaries();
+            publish();
+            scheduleCompaction();
+        } finally {
+            writeLock.unlock();
         }
     }
 
     public void delete(Predicate<Row> predicate) throws Exception {
-        rows.removeIf(predicate);
+        writeLock.lock();
+        try {
+            Bitmap next = tombstones.copy();
+            int[] deleted = {0};
+            List<Change> found = new ArrayList<>();
+            boolean recording = recording();
+            Snapshot current = new Snapshot(rows, tombstones, zones);
+            forEachMatch(current, predicate, i -> {
+                next.set(i);
+                deleted[0]++;
+                if (recording) found.add(new Change(name, Change.Type.DELETE, detach(current.rows.get(i)), null));
+            });
+
+            tombstones = next;
+            changes.addAll(found);
+            if (!recording) unrecorded += deleted[0];
+            deletedCount += deleted[0];
+            publish();
+            scheduleCompaction();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Drops dead rows and decodes columns whose dictionary was closed; row positions change only here
+    void compact() {
+        writeLock.lock();
+        try {
+            compactionScheduled = false;
+            if (deletedCount == 0) return;
+
+            List<Integer> decodedOrdinals = new ArrayList<>();
+            for (Map.Entry<String, ValueDictionary> entry : dictionaries.entrySet()) {
+                if (entry.getValue().isClosed()) decodedOrdinals.add(columns.get(entry.getKey()).getOrdinal());
+            }
+
+            List<Row> live = storage == Storage.OFF_HEAP
+                    ? new OffHeapRowList(getColumnNames(), Collections.emptyList())
+                    : new HeapRowList(Collections.emptyList());
+            try {
+                for (int i = 0; i < rows.size(); i++) {
+                    if (tombstones.get(i)) continue;
+
+                    Row row = rows.get(i);
+                    if (!decodedOrdinals.isEmpty()) {
+                        ArrayList<Element> elements = new ArrayList<>(row.getElements());
+                        for (int ordinal : decodedOrdinals) {
+                            Element element = elements.get(ordinal);
+                            elements.set(ordinal, new Element(element.getValue(), element.getColumn()));
+                        }
+                        row = new Row(elements);
+                    }
+                    live.add(row);
+                }
+            } catch (RuntimeException | Error e) {
+                // Such as the off-heap budget running out; the table keeps its rows as they were
+                if (live instanceof OffHeapRowList) ((OffHeapRowList) live).release();
+                throw e;
+            }
+
+            if (rows instanceof OffHeapRowList) ((OffHeapRowList) rows).release();
+            rows = live;
+            tombstones = new Bitmap();
+            deletedCount = 0;
+            dictionaries.values().removeIf(ValueDictionary::isClosed);
+            rebuildZones();
+            publish();
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     public Collection<Row> select(Collection<Column> columns, Predicate<Row> predicate) throws Exception {
+        ArrayList<Row> result = new ArrayList<>();
+        select(columns, predicate, result::add);
+        return result;
+    }
+
+    // Hands every projected row to sink as soon as it is found
+    public void select(Collection<Column> columns, Predicate<Row> predicate, Consumer<Row> sink) throws Exception {
         if (columns.isEmpty()) throw new Exception("Columns collection is not allowed to be empty in a select query");
 
-        ArrayList<Row> result = new ArrayList<>();
+        Snapshot current = snapshot;
+        QueryContext context = QueryContext.current();
+
+        forEachMatch(current, predicate, i -> {
+            Row row = current.rows.get(i);
+            if (context != null) context.rowsReturned++;
+            sink.accept(new Row(columns.stream().map(column -> {
+                Element element = row.getElement(column.getOrdinal());
+                return new Element(element.getValue(), element.getColumn());
+            }).collect(Collectors.toCollection(ArrayList::new))));
+        });
+    }
 
-        for (Row row : rows) {
-            if (!predicate.test(row)) continue;
+    Predicate<Element> equalTo(Column column, String value) {
+        ValueDictionary dictionary = dictionaries.get(column.getName());
+
+        // "null" also matches missing values, so it goes through the plain string comparison
+        if (dictionary == null || dictionary.isClosed() || value.equals("null")) return element -> element.equals(value);
+
+        int code = dictionary.lookup(value);
+        if (code < 0) return element -> false;
+        return element -> element.hasCode(code);
+    }
+
+    // Calls action with the position of every live row of the snapshot matching the predicate.
+    // Filters on heap rows are evaluated a block at a time; other predicates are tested row by row.
+    // A running query's deadline and cancellation are checked, and its scan counted, once per block.
+    private void forEachMatch(Snapshot current, Predicate<Row> predicate, IntConsumer action) {
+        Filter filter = predicate instanceof Filter ? ((Filter) predicate).bind(this) : null;
+        boolean batch = filter != null && current.rows instanceof HeapRowList;
+        long[] selection = new long[Filter.BLOCK_SIZE / 64];
+        QueryContext context = QueryContext.current();
+
+        for (int from = 0; from < current.size; from += Filter.BLOCK_SIZE) {
+            if (context != null) context.check();
+            if (filter != null && !filter.mayMatch(current.zones.get(from / Filter.BLOCK_SIZE))) {
+                if (context != null) context.blocksSkipped++;
+                continue;
+            }
 
-            result.add(new Row(columns.stream().map(row::getElement).collect(Collectors.toCollection(ArrayList::new))));
+            current.tombstones.complementInto(from, Math.min(from + Filter.BLOCK_SIZE, current.size), selection);
+            if (context != null) {
+                context.blocksScanned++;
+                for (long word : selection) context.rowsScanned += Long.bitCount(word);
+            }
+            if (batch) filter.apply(current.rows, from, selection);
+
+            for (int word = 0; word < selection.length; word++) {
+                long bits = selection[word];
+                while (bits != 0) {
+                    int position = from + (word << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+
+                    if (batch || (filter != null ? filter : predicate).test(current.rows.get(position))) action.accept(position);
+                }
+            }
         }
+    }
 
-        return result;
+    private void publish() {
+        if (savepoint != null) return;
+        snapshot = new Snapshot(rows, tombstones, zones);
+        version = versions.incrementAndGet();
+
+        if (!changes.isEmpty()) {
+            for (Table view : views) view.maintain(changes);
+            feed.publish(changes);
+            changes = new ArrayList<>();
+        }
+        if (unrecorded > 0) {
+            unrecordedThrough = feed.skip(unrecorded);
+            unrecorded = 0;
+        }
+    }
+
+    // Position of a live row holding the same values as row, or -1; blocks whose summary rules the
+    // values out are skipped
+    private int findLive(Row row, Bitmap dead) {
+        Column[] columnArray = getColumnArray();
+        for (int from = 0; from < rows.size(); from += Filter.BLOCK_SIZE) {
+            ZoneMap zone = zones.get(from / Filter.BLOCK_SIZE);
+            boolean mayContain = true;
+            for (Column column : columnArray) {
+                String value = row.getElement(column.getOrdinal()).getValue();
+                if (value != null && !zone.mayContain(column, value)) {
+                    mayContain = false;
+                    break;
+                }
+            }
+            if (!mayContain) continue;
+
+            for (int i = from; i < Math.min(from + Filter.BLOCK_SIZE, rows.size()); i++) {
+                if (!dead.get(i) && sameValues(rows.get(i), row)) return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean sameValues(Row left, Row right) {
+        Iterator<Element> rightElements = right.getElements().iterator();
+        for (Element element : left.getElements()) {
+            if (!Objects.equals(element.getValue(), rightElements.next().getValue())) return false;
+        }
+        return true;
+    }
+
+    // Copy holding plain values, independent of the dictionaries and of the row list
+    private static Row detach(Row row) {
+        ArrayList<Element> elements = new ArrayList<>();
+        for (Element element : row.getElements()) elements.add(new Element(element.getValue(), element.getColumn()));
+        return new Row(elements);
+    }
+
+    private void append(Row row) {
+        rows.add(row);
+        zoneOf(rows.size() - 1).add(row, getColumnArray());
+    }
+
+    private void encode(Element element) {
+        ValueDictionary dictionary = dictionaries.get(element.getColumn());
+        if (dictionary != null) element.encode(dictionary);
+    }
+
+    private void scheduleCompaction() {
+        if (!compactionScheduled && deletedCount > rows.size() * COMPACTION_THRESHOLD) {
+            compactionScheduled = true;
+            compactor.execute(this::compact);
+        }
+    }
+
+    private ZoneMap zoneOf(int position) {
+        int block = position / Filter.BLOCK_SIZE;
+        if (block == zones.size()) zones.add(new ZoneMap(columns.size()));
+        return zones.get(block);
+    }
+
+    private void rebuildZones() {
+        zones = new CopyOnWriteArrayList<>();
+        Column[] columnArray = getColumnArray();
+        for (int i = 0; i < rows.size(); i++) {
+            zoneOf(i).add(rows.get(i), columnArray);
+        }
+    }
+
+    // Columns with too many distinct values stop being encoded; compaction decodes what's left
+    private void closeOverflowedDictionaries() {
+        for (ValueDictionary dictionary : dictionaries.values()) {
+            if (dictionary.size() > MAX_DICTIONARY_SIZE) dictionary.close();
+        }
     }
 
     public String getName() {
@@ -68,7 +667,21 @@ public class Table {
     }
 
     public Collection<Row> getRows() {
-        return rows;
+        Snapshot current = snapshot;
+
+        ArrayList<Row> result = new ArrayList<>();
+        for (int i = 0; i < current.size; i++) {
+            if (i % Filter.BLOCK_SIZE == 0) QueryContext.checkCurrent();
+            if (!current.tombstones.get(i)) result.add(current.rows.get(i));
+        }
+
+        QueryContext context = QueryContext.current();
+        if (context != null) context.rowsScanned += result.size();
+        return result;
+    }
+
+    public boolean hasColumn(String name) {
+        return columns.containsKey(name);
     }
 
     public Column getColumn(String name) throws Exception {
@@ -80,12 +693,34 @@ public class Table {
         return columns.values();
     }
 
+    private String[] getColumnNames() {
+        return columns.keySet().toArray(new String[0]);
+    }
+
+    private Column[] getColumnArray() {
+        return columns.values().toArray(new Column[0]);
+    }
+
     public Collection<Row> cartesianProduct(Table rightTable)
     {
         ArrayList<Row> result = new ArrayList<>();
-        for (Row leftRow : this.rows)
+        cartesianProduct(rightTable, result::add);
+        return result;
+    }
+
+    public void cartesianProduct(Table rightTable, Consumer<Row> sink)
+    {
+        Collection<Row> leftRows = this.getRows();
+        Collection<Row> rightRows = rightTable.getRows();
+        QueryContext context = QueryContext.current();
+
+        for (Row leftRow : leftRows)
         {
-            for (Row rightRow : rightTable.rows)
+            if (context != null) {
+                context.check();
+                context.rowsReturned += rightRows.size();
+            }
+            for (Row rightRow : rightRows)
             {
                 ArrayList<Element> elements = new ArrayList<>();
                 for (Element element : leftRow.getElements())
@@ -96,9 +731,8 @@ public class Table {
                 {
                     elements.add(new Element(element.getValue(), rightTable.name + "." + element.getColumn()));
                 }
-                result.add(new Row(elements));
+                sink.accept(new Row(elements));
             }
         }
-        return result;
     }
 }
@@ -0,0 +1,58 @@
+package database;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Per-column dictionary mapping distinct string values to int codes. Codes are only ever added,
+// so readers can decode while the table's writer encodes new values.
+class ValueDictionary {
+    private List<String> values;
+    // A closed dictionary still decodes existing elements but no new values are encoded with it
+    private volatile boolean closed;
+    private transient Map<String, Integer> codes;
+
+    ValueDictionary() {
+        values = new CopyOnWriteArrayList<>();
+        codes = new ConcurrentHashMap<>();
+    }
+
+    int encode(String value) {
+        Integer code = codes.get(value);
+        if (code != null) return code;
+
+        values.add(value);
+        codes.put(value, values.size() - 1);
+        return values.size() - 1;
+    }
+
+    int lookup(String value) {
+        Integer code = codes.get(value);
+        return code == null ? -1 : code;
+    }
+
+    String decode(int code) {
+        return values.get(code);
+    }
+
+    int size() {
+        return values.size();
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    void close() {
+        closed = true;
+    }
+
+    void restore() {
+        values = new CopyOnWriteArrayList<>(values);
+        codes = new ConcurrentHashMap<>();
+        for (int code = 0; code < values.size(); code++) {
+            codes.put(values.get(code), code);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+// What a materialized view holds of its base table: the rows matching the condition, projected to
+// the columns. Saved with the view's table; the predicate and columns are bound to the base table
+// again when the database is read.
+class View {
+    private String base;
+    private List<String> columns;
+    // Null when every row is included
+    private String condition;
+
+    private transient Predicate<Row> predicate;
+    private transient List<Column> baseColumns;
+
+    View(String base, List<String> columns, String condition) {
+        this.base = base;
+        this.columns = columns;
+        this.condition = condition;
+    }
+
+    String getBase() {
+        return base;
+    }
+
+    List<String> getColumns() {
+        return columns;
+    }
+
+    String getCondition() {
+        return condition;
+    }
+
+    void bind(Predicate<Row> predicate, List<Column> baseColumns) {
+        this.predicate = predicate;
+        this.baseColumns = baseColumns;
+    }
+
+    // The view's row for a row of the base table, or null if the view doesn't include it
+    Row project(Row baseRow) {
+        if (baseRow == null || !predicate.test(baseRow)) return null;
+
+        ArrayList<Element> elements = new ArrayList<>();
+        for (Column column : baseColumns) elements.add(new Element(baseRow.getElement(column.getOrdinal()).getValue(), column.getName()));
+        return new Row(elements);
+    }
+}
@@ -0,0 +1,184 @@
+package database;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+// Records every statement a database receives, from any front-end, so that the workload can be
+// played again with replay.Replay. The file starts with a magic number and the capture's start
+// time in epoch milliseconds; each record then holds
+//
+//   kind                 byte: 0 query, 1 batch, 2 atomic batch
+//   delay                varint: microseconds since the previous record
+//   session              varint: numbered from 1 in order of appearance, 0 outside of a session
+//   count                varint: number of queries, batches only
+//   queries              varint length and UTF-8 bytes of each
+//
+// Records are written as the statements arrive, before they are parsed, invalid ones included.
+// They are buffered, and flushed by the first write a second or more after the last flush, and
+// on close.
+public class WorkloadCapture implements Closeable {
+    private static final int MAGIC = 0x574c4331;
+    private static final long FLUSH_NANOS = 1_000_000_000;
+
+    public enum Kind { QUERY, BATCH, ATOMIC_BATCH }
+
+    public static class Entry {
+        private final Kind kind;
+        private final long offsetMicros;
+        private final int session;
+        private final List<String> queries;
+
+        Entry(Kind kind, long offsetMicros, int session, List<String> queries) {
+            this.kind = kind;
+            this.offsetMicros = offsetMicros;
+            this.session = session;
+            this.queries = queries;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        // Since the capture started
+        public long getOffsetMicros() {
+            return offsetMicros;
+        }
+
+        // 0 outside of a session
+        public int getSession() {
+            return session;
+        }
+
+        public List<String> getQueries() {
+            return queries;
+        }
+    }
+
+    private final DataOutputStream out;
+    // Sessions are only numbered, so that they can be told apart; the map lets go of closed ones
+    private final Map<Session, Integer> sessions = new WeakHashMap<>();
+    private final long started = System.nanoTime();
+    private int sessionCount;
+    private long lastMicros;
+    private long flushedAt = System.nanoTime();
+    private boolean stopped;
+
+    WorkloadCapture(String path) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeLong(System.currentTimeMillis());
+        out.flush();
+    }
+
+    void query(String queryMessage, Session session) {
+        write(Kind.QUERY, session, Collections.singletonList(queryMessage));
+    }
+
+    void batch(List<String> queryMessages, boolean atomic) {
+        write(atomic ? Kind.ATOMIC_BATCH : Kind.BATCH, null, queryMessages);
+    }
+
+    // A failed write ends the capture rather than the query being captured
+    private synchronized void write(Kind kind, Session session, List<String> queries) {
+        if (stopped) return;
+
+        try {
+            long micros = (System.nanoTime() - started) / 1000;
+            out.writeByte(kind.ordinal());
+            writeVarLong(micros - lastMicros);
+            lastMicros = micros;
+
+            Integer number = 0;
+            if (session != null) {
+                number = sessions.get(session);
+                if (number == null) {
+                    number = ++sessionCount;
+                    sessions.put(session, number);
+                }
+            }
+            writeVarLong(number);
+
+            if (kind != Kind.QUERY) writeVarLong(queries.size());
+            for (String query : queries) {
+                byte[] bytes = query == null ? new byte[0] : query.getBytes(StandardCharsets.UTF_8);
+                writeVarLong(bytes.length);
+                out.write(bytes);
+            }
+
+            if (System.nanoTime() - flushedAt >= FLUSH_NANOS) {
+                out.flush();
+                flushedAt = System.nanoTime();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            stopped = true;
+        }
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        stopped = true;
+        out.close();
+    }
+
+    // A record cut short at the end of the file, as left by a crash, is left out
+    public static List<Entry> read(String path) throws Exception {
+        List<Entry> entries = new ArrayList<>();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 1 << 16))) {
+            try {
+                if (in.readInt() != MAGIC) throw new EOFException();
+                in.readLong();
+            } catch (EOFException e) {
+                throw new Exception(String.format("'%s' isn't a workload capture", path));
+            }
+
+            long micros = 0;
+            while (true) {
+                int kind = in.read();
+                if (kind < 0) break;
+
+                try {
+                    if (kind >= Kind.values().length) throw new Exception(String.format("Invalid record kind %d in '%s'", kind, path));
+                    micros += readVarLong(in);
+                    int session = (int) readVarLong(in);
+                    int count = kind == Kind.QUERY.ordinal() ? 1 : (int) readVarLong(in);
+
+                    List<String> queries = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        byte[] bytes = new byte[(int) readVarLong(in)];
+                        in.readFully(bytes);
+                        queries.add(new String(bytes, StandardCharsets.UTF_8));
+                    }
+                    entries.add(new Entry(Kind.values()[kind], micros, session, queries));
+                } catch (EOFException e) {
+                    break;
+                }
+            }
+        }
+
+        return entries;
+    }
+
+    private static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package database;
+
+import java.text.SimpleDateFormat;
+
+// Summary of one block of rows: minimum, maximum and null count of every column, used by scans
+// to skip blocks that cannot match an equality condition
+class ZoneMap {
+    private String[] min;
+    private String[] max;
+    private int[] nullCount;
+
+    ZoneMap(int columnCount) {
+        min = new String[columnCount];
+        max = new String[columnCount];
+        nullCount = new int[columnCount];
+    }
+
+    ZoneMap(ZoneMap other) {
+        min = other.min.clone();
+        max = other.max.clone();
+        nullCount = other.nullCount.clone();
+    }
+
+    void add(Row row, Column[] columns) {
+        for (Column column : columns) {
+            int ordinal = column.getOrdinal();
+            String value = row.getElement(ordinal).getValue();
+
+            if (value == null) {
+                nullCount[ordinal]++;
+            } else if (column.getType() != Column.Type.DATE_RANGE) {
+                if (min[ordinal] == null || compare(column.getType(), value, min[ordinal]) < 0) min[ordinal] = value;
+                if (max[ordinal] == null || compare(column.getType(), value, max[ordinal]) > 0) max[ordinal] = value;
+            }
+        }
+    }
+
+    boolean mayContain(Column column, String value) {
+        int ordinal = column.getOrdinal();
+
+        // "null" also matches missing values
+        if (value.equals("null") && nullCount[ordinal] > 0) return true;
+        if (column.getType() == Column.Type.DATE_RANGE) return true;
+        if (min[ordinal] == null) return false;
+
+        try {
+            return compare(column.getType(), value, min[ordinal]) >= 0 && compare(column.getType(), value, max[ordinal]) <= 0;
+        } catch (Exception e) {
+            // A value that doesn't parse as the column type can't be ruled out by the summary
+            return true;
+        }
+    }
+
+    private static int compare(Column.Type type, String left, String right) {
+        try {
+            switch (type) {
+                case INT: return Integer.compare(Integer.parseInt(left), Integer.parseInt(right));
+                case FLOAT: return Float.compare(Float.parseFloat(left), Float.parseFloat(right));
+                case DATE: {
+                    SimpleDateFormat dateFormat = new SimpleDateFormat("dd-MM-yyyy");
+                    return dateFormat.parse(left).compareTo(dateFormat.parse(right));
+                }
+                default: return left.compareTo(right);
+            }
+        } catch (Exception e) {
+            throw new IllegalArgumentException(String.format("Values '%s' and '%s' are not comparable", left, right), e);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package dbconsoleviewer;
 
 import database.*;
 
+import java.util.Collection;
 import java.util.Scanner;
 
 public class DBConsoleViewer {
@@ -51,7 +52,12 @@ public class DBConsoleViewer {
         System.out.println();
         System.out.println();
 
-        for (Row row : result.getRows()) {
+        printRows(result.getRows());
+    }
+
+    // Prints rows without the header, for results that arrive in parts
+    public static void printRows(Collection<Row> rows) {
+        for (Row row : rows) {
             for (Element element : row.getElements()) {
                 System.out.print(String.format("%25s", element.getAsString()));
             }
@@ -0,0 +1,32 @@
+package partition;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+// Console in front of a Coordinator; the arguments are the nodes' wire addresses, host:port
+public class Client {
+
+    public static void main(String[] args) {
+        List<InetSocketAddress> nodes = new ArrayList<>();
+        for (String arg : args) {
+            String[] hostPort = arg.split(":");
+            nodes.add(new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1])));
+        }
+        if (nodes.isEmpty()) nodes.add(new InetSocketAddress("localhost", 12400));
+
+        try (Coordinator coordinator = new Coordinator(nodes, System.getProperty("partition.catalog", "partitions.json"))) {
+            while (true) {
+                System.out.print("> ");
+                Scanner scanner = new Scanner(System.in);
+                String command = scanner.nextLine();
+
+                wire.Client.processResult(coordinator.query(command));
+            }
+        } catch (Exception e) {
+            System.err.println("Client exception: " + e.toString());
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package partition;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import database.QueryRegex;
+import database.Result;
+import org.mentaregex.Regex;
+import wire.WireClient;
+import wire.WireResult;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+// Sits in front of several engine nodes, reached over the wire protocol, and spreads the rows of
+// partitioned tables over them by the hash of one column:
+//
+//   CREATE TABLE <tablename> (TYPE1 column1, ...) PARTITION BY HASH(column) INTO <n>
+//
+// puts the table on the first n nodes. Queries with an equality on the partition column go to the
+// one node holding those rows; others go to every node of the table at once and their rows are
+// merged. Tables created without PARTITION BY, and materialized views of them, live on the first
+// node only. Statements that can't be spread over the nodes, such as views of partitioned tables,
+// transactions, SHOW and CANCEL, are turned down rather than sent to one node.
+public class Coordinator implements Closeable {
+    private static final String CREATE_PARTITIONED = "^\\s*CREATE\\s+TABLE\\s+([^\\s]+)\\s+\\(([^\\)]+)\\)\\s+PARTITION\\s+BY\\s+HASH\\s*\\(\\s*([^\\s\\)]+)\\s*\\)\\s+INTO\\s+([0-9]+)\\s*$/i";
+
+    private static class Partitioning {
+        final String column;
+        final int count;
+
+        Partitioning(String column, int count) {
+            this.column = column;
+            this.count = count;
+        }
+    }
+
+    private final List<WireClient> nodes = new ArrayList<>();
+    // Which tables are partitioned and how; kept in catalogPath, if given, across restarts
+    private final Map<String, Partitioning> partitioned = new ConcurrentHashMap<>();
+    private final String catalogPath;
+
+    public Coordinator(List<InetSocketAddress> nodeAddresses, String catalogPath) throws IOException {
+        for (InetSocketAddress address : nodeAddresses) nodes.add(new WireClient(address.getHostString(), address.getPort()));
+
+        this.catalogPath = catalogPath;
+        if (catalogPath != null && new File(catalogPath).exists()) {
+            try (Reader reader = new FileReader(catalogPath)) {
+                Map<String, Partitioning> saved = new Gson().fromJson(reader, new TypeToken<Map<String, Partitioning>>() {}.getType());
+                if (saved != null) partitioned.putAll(saved);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (WireClient node : nodes) node.close();
+    }
+
+    public WireResult query(String query) throws Exception {
+        String[] found;
+
+        if ((found = match(query, CREATE_PARTITIONED)) != null) {
+            String table = found[0];
+            int count = Integer.parseInt(found[3]);
+            if (count < 1 || count > nodes.size()) return fail(String.format("A table can be spread over 1 to %d nodes", nodes.size()));
+
+            List<WireResult> results = scatter(String.format("create table %s (%s)", table, found[1]), count);
+            WireResult result = merge(results);
+            if (result.getStatus() == Result.Status.FAIL) {
+                // The nodes that did create it drop it again, so that none is left with a part of the table
+                for (int i = 0; i < results.size(); i++) {
+                    if (results.get(i).getStatus() == Result.Status.OK) nodes.get(i).query(String.format("drop table %s", table));
+                }
+                return result;
+            }
+
+            partitioned.put(table, new Partitioning(found[2], count));
+            saveCatalog();
+            return result;
+        }
+
+        if (match(query, QueryRegex.CREATE_TABLE.getRegex()) != null) {
+            return nodes.get(0).query(query);
+        }
+
+        if ((found = match(query, QueryRegex.CREATE_VIEW.getRegex())) != null) {
+            if (partitioned.containsKey(found[2])) {
+                return fail(String.format("Materialized views of the partitioned table '%s' aren't available", found[2]));
+            }
+            return nodes.get(0).query(query);
+        }
+
+        if ((found = match(query, QueryRegex.INSERT_ROW.getRegex())) != null) {
+            Partitioning partitioning = partitioned.get(found[0]);
+            if (partitioning == null) return nodes.get(0).query(query);
+
+            List<String> columns = split(found[1]);
+            List<String> values = split(found[2]);
+            int index = columns.indexOf(partitioning.column);
+            return nodes.get(nodeOf(index < 0 ? "null" : values.get(index), partitioning)).query(query);
+        }
+
+        if ((found = match(query, QueryRegex.SELECT_ROWS.getRegex())) != null) {
+            return route(query, found[1], found.length > 2 ? found[2] : null);
+        }
+
+        if ((found = match(query, QueryRegex.DELETE_ROWS.getRegex())) != null) {
+            return route(query, found[0], found.length > 1 ? found[1] : null);
+        }
+
+        if ((found = match(query, QueryRegex.UPDATE_ROWS.getRegex())) != null) {
+            Partitioning partitioning = partitioned.get(found[0]);
+            if (partitioning != null && equalities(found[1]).containsKey(partitioning.column)) {
+                return fail(String.format("The partition column '%s' can't be updated", partitioning.column));
+            }
+            return route(query, found[0], found.length > 2 ? found[2] : null);
+        }
+
+        if ((found = match(query, QueryRegex.DROP_TABLE.getRegex())) != null) {
+            Partitioning partitioning = partitioned.get(found[0]);
+            if (partitioning == null) return nodes.get(0).query(query);
+
+            WireResult result = merge(scatter(query, partitioning.count));
+            partitioned.remove(found[0]);
+            saveCatalog();
+            return result;
+        }
+
+        if ((found = match(query, QueryRegex.ALTER_STORAGE.getRegex())) != null) {
+            return route(query, found[0], null);
+        }
+
+        if (match(query, QueryRegex.LIST_TABLES.getRegex()) != null) {
+            WireResult result = merge(scatter(query, nodes.size()));
+            if (result.getRows() == null) return result;
+
+            Set<String> names = new TreeSet<>();
+            for (String[] row : result.getRows()) names.add(row[0]);
+            List<String[]> rows = names.stream().map(name -> new String[]{name}).collect(Collectors.toList());
+            return new WireResult(Result.Status.OK, "", 0, new String[]{"table_name"}, rows);
+        }
+
+        if ((found = match(query, QueryRegex.CARTESIAN_PRODUCT.getRegex())) != null) {
+            if (!partitioned.containsKey(found[0]) && !partitioned.containsKey(found[1])) return nodes.get(0).query(query);
+            return cartesianProduct(found[0], found[1]);
+        }
+
+        if (match(query, QueryRegex.BEGIN.getRegex()) != null || match(query, QueryRegex.COMMIT.getRegex()) != null
+                || match(query, QueryRegex.ROLLBACK.getRegex()) != null) {
+            return fail("Transactions aren't available through the coordinator");
+        }
+
+        return fail(String.format("'%s' isn't available through the coordinator", query.trim()));
+    }
+
+    // To the one node holding the rows when the condition fixes the partition column, else to every
+    // node of the table
+    private WireResult route(String query, String table, String condition) throws Exception {
+        Partitioning partitioning = partitioned.get(table);
+        if (partitioning == null) return nodes.get(0).query(query);
+
+        String key = condition == null ? null : equalities(condition).get(partitioning.column);
+        if (key != null) return nodes.get(nodeOf(key, partitioning)).query(query);
+
+        return merge(scatter(query, partitioning.count));
+    }
+
+    // Sends the query to the first count nodes at once
+    private List<WireResult> scatter(String query, int count) throws Exception {
+        List<CompletableFuture<WireResult>> futures = new ArrayList<>();
+        for (int i = 0; i < count; i++) futures.add(nodes.get(i).send(query));
+
+        List<WireResult> results = new ArrayList<>();
+        for (CompletableFuture<WireResult> future : futures) results.add(future.get());
+        return results;
+    }
+
+    // The first failure, or all the rows one after another
+    private WireResult merge(List<WireResult> results) {
+        String[] columns = null;
+        List<String[]> rows = null;
+
+        for (WireResult result : results) {
+            if (result.getStatus() == Result.Status.FAIL) return result;
+            if (result.getRows() == null) continue;
+
+            if (rows == null) rows = new ArrayList<>();
+            if (columns == null || columns.length == 0) columns = result.getColumns();
+            rows.addAll(result.getRows());
+        }
+
+        return new WireResult(Result.Status.OK, "", 0, columns, rows);
+    }
+
+    private WireResult cartesianProduct(String leftTable, String rightTable) throws Exception {
+        WireResult left = route(String.format("select * from %s", leftTable), leftTable, null);
+        if (left.getStatus() == Result.Status.FAIL) return left;
+        WireResult right = route(String.format("select * from %s", rightTable), rightTable, null);
+        if (right.getStatus() == Result.Status.FAIL) return right;
+
+        List<String> columns = new ArrayList<>();
+        if (!left.getRows().isEmpty() && !right.getRows().isEmpty()) {
+            for (String column : left.getColumns()) columns.add(leftTable + "." + column);
+            for (String column : right.getColumns()) columns.add(rightTable + "." + column);
+        }
+
+        List<String[]> rows = new ArrayList<>();
+        for (String[] leftRow : left.getRows()) {
+            for (String[] rightRow : right.getRows()) {
+                String[] row = Arrays.copyOf(leftRow, leftRow.length + rightRow.length);
+                System.arraycopy(rightRow, 0, row, leftRow.length, rightRow.length);
+                rows.add(row);
+            }
+        }
+        return new WireResult(Result.Status.OK, "", 0, columns.toArray(new String[0]), rows);
+    }
+
+    private static int nodeOf(String value, Partitioning partitioning) {
+        return Math.floorMod(value.hashCode(), partitioning.count);
+    }
+
+    private static Map<String, String> equalities(String expr) {
+        Map<String, String> result = new HashMap<>();
+        for (String equalExpr : split(expr)) {
+            String[] pair = equalExpr.split("=");
+            if (pair.length == 2) result.put(pair[0].trim(), pair[1].trim());
+        }
+        return result;
+    }
+
+    private static List<String> split(String expr) {
+        return Arrays.stream(expr.split(",")).map(String::trim).collect(Collectors.toList());
+    }
+
+    private static String[] match(String query, String regex) {
+        String[] found = Regex.match(query, regex);
+        if (found == null) return null;
+        return Arrays.stream(found).filter(Objects::nonNull).map(String::trim).toArray(String[]::new);
+    }
+
+    private static WireResult fail(String report) {
+        return new WireResult(Result.Status.FAIL, report, 0, null, null);
+    }
+
+    private void saveCatalog() throws IOException {
+        if (catalogPath == null) return;
+        try (Writer writer = new FileWriter(catalogPath)) {
+            new Gson().toJson(partitioned, writer);
+        }
+    }
+}
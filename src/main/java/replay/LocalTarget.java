@@ -0,0 +1,44 @@
+package replay;
+
+import database.Database;
+import database.DatabaseReader;
+import database.Result;
+import database.Session;
+
+import java.util.List;
+
+// A database in this process, loaded from the file. It saves to a copy next to the file, so the
+// cost of saving is part of the replay but the file itself is left as it was.
+class LocalTarget implements Target {
+    private final Database database;
+
+    LocalTarget(String path) throws Exception {
+        database = new DatabaseReader(path).read();
+        database.setFilePath(path + ".replay");
+    }
+
+    @Override
+    public Connection open(boolean session) {
+        Session databaseSession = session ? new Session() : null;
+
+        return new Connection() {
+            @Override
+            public boolean query(String query) {
+                return database.query(query, databaseSession).getStatus() == Result.Status.OK;
+            }
+
+            @Override
+            public boolean batch(List<String> queries, boolean atomic) {
+                return database.batch(queries, atomic).stream().allMatch(result -> result.getStatus() == Result.Status.OK);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,232 @@
+package replay;
+
+import database.WorkloadCapture;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Plays a workload captured by a database (see WorkloadCapture) against a target and reports the
+// throughput and latencies:
+//
+//   Replay <capture file> <target> [--mode open|closed] [--concurrency n] [--speedup x]
+//
+// The target is local:<database file>, http://host:port or rmi://host:port. In open loop mode, the
+// default, statements are sent at their captured times divided by the speedup, whether or not the
+// earlier ones were answered, by up to concurrency threads at once; their latency counts from the
+// time they were due, so a target that falls behind shows it. In closed loop mode each of the
+// threads replays whole sessions, sending a statement as soon as the previous one was answered,
+// and the captured times are ignored. Either way the statements of a captured session keep their
+// order and go through a connection of their own.
+public class Replay {
+    private final List<WorkloadCapture.Entry> entries;
+    private final Target target;
+    private final int concurrency;
+
+    // Of each entry, in nanoseconds
+    private final long[] latencies;
+    private final LongAdder failures = new LongAdder();
+    private final CountDownLatch done;
+    // Shared by the statements sent outside of a session
+    private Target.Connection sessionless;
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: Replay <capture file> <target> [--mode open|closed] [--concurrency n] [--speedup x]");
+            System.exit(1);
+        }
+
+        try {
+            String mode = "open";
+            int concurrency = 16;
+            double speedup = 1;
+            for (int i = 2; i + 1 < args.length; i += 2) {
+                switch (args[i]) {
+                    case "--mode": mode = args[i + 1]; break;
+                    case "--concurrency": concurrency = Integer.parseInt(args[i + 1]); break;
+                    case "--speedup": speedup = Double.parseDouble(args[i + 1]); break;
+                    default: throw new Exception(String.format("Unknown option '%s'", args[i]));
+                }
+            }
+            if (!mode.equals("open") && !mode.equals("closed")) throw new Exception(String.format("Unknown mode '%s'", mode));
+            if (concurrency < 1 || speedup <= 0) throw new Exception("Concurrency and speedup must be positive");
+
+            try (Target target = Target.of(args[1])) {
+                Replay replay = new Replay(WorkloadCapture.read(args[0]), target, concurrency);
+                System.out.println(mode.equals("open") ? replay.openLoop(speedup) : replay.closedLoop());
+            }
+        } catch (Exception e) {
+            System.err.println("Replay exception: " + e.toString());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    Replay(List<WorkloadCapture.Entry> entries, Target target, int concurrency) {
+        this.entries = entries;
+        this.target = target;
+        this.concurrency = concurrency;
+        latencies = new long[entries.size()];
+        done = new CountDownLatch(entries.size());
+    }
+
+    Report openLoop(double speedup) throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency, Replay::daemon);
+        Map<Integer, Lane> lanes = new HashMap<>();
+        sessionless = target.open(false);
+
+        long started = System.nanoTime();
+        try {
+            for (int i = 0; i < entries.size(); i++) {
+                WorkloadCapture.Entry entry = entries.get(i);
+                long due = started + (long) (entry.getOffsetMicros() * 1000 / speedup);
+                long wait = due - System.nanoTime();
+                if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+
+                int index = i;
+                if (entry.getSession() == 0) {
+                    workers.execute(() -> send(index, null, due));
+                } else {
+                    lanes.computeIfAbsent(entry.getSession(), session -> new Lane(workers)).add(index, due);
+                }
+            }
+            done.await();
+            return new Report(System.nanoTime() - started);
+        } finally {
+            workers.shutdownNow();
+            for (Lane lane : lanes.values()) lane.close();
+            sessionless.close();
+        }
+    }
+
+    Report closedLoop() throws Exception {
+        // A captured session is replayed by one thread from start to end; statements outside of
+        // a session are taken one at a time. They are taken in the order they started.
+        Map<Integer, List<Integer>> sessions = new LinkedHashMap<>();
+        for (int i = 0; i < entries.size(); i++) {
+            int session = entries.get(i).getSession();
+            sessions.computeIfAbsent(session == 0 ? -i - 1 : session, s -> new ArrayList<>()).add(i);
+        }
+        Queue<List<Integer>> units = new ConcurrentLinkedQueue<>(sessions.values());
+        sessionless = target.open(false);
+
+        long started = System.nanoTime();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < concurrency; i++) {
+            Thread thread = daemon(() -> {
+                List<Integer> unit;
+                while ((unit = units.poll()) != null) {
+                    Lane lane = entries.get(unit.get(0)).getSession() == 0 ? null : new Lane(null);
+                    for (int index : unit) send(index, lane, System.nanoTime());
+                    if (lane != null) lane.close();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        try {
+            done.await();
+            return new Report(System.nanoTime() - started);
+        } finally {
+            for (Thread thread : threads) thread.interrupt();
+            sessionless.close();
+        }
+    }
+
+    private void send(int index, Lane lane, long due) {
+        WorkloadCapture.Entry entry = entries.get(index);
+        boolean ok;
+        try {
+            Target.Connection connection = lane == null ? sessionless : lane.connection();
+            if (entry.getKind() == WorkloadCapture.Kind.QUERY) {
+                ok = connection.query(entry.getQueries().get(0));
+            } else {
+                ok = connection.batch(entry.getQueries(), entry.getKind() == WorkloadCapture.Kind.ATOMIC_BATCH);
+            }
+        } catch (Exception e) {
+            ok = false;
+        }
+
+        latencies[index] = System.nanoTime() - due;
+        if (!ok) failures.increment();
+        done.countDown();
+    }
+
+    // The statements of one captured session, sent one after another through a connection of its own
+    private class Lane {
+        final ExecutorService workers;
+        final Queue<long[]> pending = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean running = new AtomicBoolean();
+        // Opened by the first statement; only touched by the thread sending the session's statements
+        Target.Connection connection;
+
+        Lane(ExecutorService workers) {
+            this.workers = workers;
+        }
+
+        Target.Connection connection() throws Exception {
+            if (connection == null) connection = target.open(true);
+            return connection;
+        }
+
+        void add(int index, long due) {
+            pending.add(new long[]{index, due});
+            schedule();
+        }
+
+        void schedule() {
+            if (!pending.isEmpty() && running.compareAndSet(false, true)) workers.execute(this::drain);
+        }
+
+        void drain() {
+            long[] next;
+            while ((next = pending.poll()) != null) send((int) next[0], this, next[1]);
+            running.set(false);
+
+            // A statement may have come in between the last poll and the reset
+            schedule();
+        }
+
+        void close() {
+            try {
+                if (connection != null) connection.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    class Report {
+        final long elapsedNanos;
+
+        Report(long elapsedNanos) {
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            long[] sorted = latencies.clone();
+            Arrays.sort(sorted);
+            long statements = entries.stream().mapToLong(entry -> entry.getQueries().size()).sum();
+            double seconds = elapsedNanos / 1e9;
+
+            return String.format(Locale.ROOT, "Replayed %d requests (%d statements) in %.3f s: %.1f requests/s, %d failed%n"
+                            + "Latency ms: p50 %.3f  p90 %.3f  p99 %.3f  p99.9 %.3f  max %.3f",
+                    sorted.length, statements, seconds, sorted.length / seconds, failures.sum(),
+                    millis(sorted, 0.5), millis(sorted, 0.9), millis(sorted, 0.99), millis(sorted, 0.999), millis(sorted, 1));
+        }
+
+        private double millis(long[] sorted, double share) {
+            if (sorted.length == 0) return 0;
+            int index = (int) Math.ceil(share * sorted.length) - 1;
+            return sorted[Math.max(index, 0)] / 1e6;
+        }
+    }
+
+    private static Thread daemon(Runnable runnable) {
+        Thread thread = new Thread(runnable, "replay");
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,79 @@
+package replay;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// The HTTP front-ends of a DatabaseServer: queries go to the query page of the MVC front-end,
+// which keeps a session per cookie, and batches to the batch endpoint of the REST API
+class RestTarget implements Target {
+    private final String base;
+
+    RestTarget(String base) {
+        this.base = base.endsWith("/") ? base.substring(0, base.length() - 1) : base;
+    }
+
+    @Override
+    public Connection open(boolean session) {
+        return new Connection() {
+            // Set by the server on the first response when there's a session to keep
+            private volatile String cookie;
+
+            @Override
+            public boolean query(String query) throws IOException {
+                String body = "query=" + URLEncoder.encode(query, "UTF-8");
+                return isOk(post("/database", "application/x-www-form-urlencoded", body));
+            }
+
+            @Override
+            public boolean batch(List<String> queries, boolean atomic) throws IOException {
+                JsonElement results = post("/database/batch?atomic=" + atomic, "application/json", new Gson().toJson(queries));
+                for (JsonElement result : results.getAsJsonArray()) {
+                    if (!isOk(result)) return false;
+                }
+                return true;
+            }
+
+            private JsonElement post(String path, String contentType, String body) throws IOException {
+                HttpURLConnection connection = (HttpURLConnection) new URL(base + path).openConnection();
+                connection.setRequestMethod("POST");
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", contentType);
+                if (session && cookie != null) connection.setRequestProperty("Cookie", cookie);
+
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(body.getBytes(StandardCharsets.UTF_8));
+                }
+
+                String setCookie = connection.getHeaderField("Set-Cookie");
+                if (session && setCookie != null) cookie = setCookie.split(";")[0];
+
+                try (Reader reader = new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8)) {
+                    return new JsonParser().parse(reader);
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private static boolean isOk(JsonElement result) {
+        return result.isJsonObject() && "OK".equals(result.getAsJsonObject().get("status").getAsString());
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,66 @@
+package replay;
+
+import database.Result;
+import rmi.IDatabaseRemote;
+
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.util.List;
+
+// The RMI front-end. It has no batches: the queries of a batch are sent one by one, those of an
+// atomic batch as one transaction of a session of their own.
+class RmiTarget implements Target {
+    private final IDatabaseRemote stub;
+
+    RmiTarget(String host, int port) throws Exception {
+        stub = (IDatabaseRemote) LocateRegistry.getRegistry(host, port).lookup("IDatabaseRemote");
+    }
+
+    @Override
+    public Connection open(boolean session) throws RemoteException {
+        String sessionId = session ? stub.openSession() : null;
+
+        return new Connection() {
+            @Override
+            public boolean query(String query) throws RemoteException {
+                return isOk(sessionId != null ? stub.query(sessionId, query) : stub.query(query));
+            }
+
+            @Override
+            public boolean batch(List<String> queries, boolean atomic) throws RemoteException {
+                if (!atomic) {
+                    boolean ok = true;
+                    for (String query : queries) ok &= isOk(stub.query(query));
+                    return ok;
+                }
+
+                String batchSession = stub.openSession();
+                try {
+                    if (!isOk(stub.query(batchSession, "begin"))) return false;
+                    for (String query : queries) {
+                        if (!isOk(stub.query(batchSession, query))) {
+                            stub.query(batchSession, "rollback");
+                            return false;
+                        }
+                    }
+                    return isOk(stub.query(batchSession, "commit"));
+                } finally {
+                    stub.closeSession(batchSession);
+                }
+            }
+
+            @Override
+            public void close() throws RemoteException {
+                if (sessionId != null) stub.closeSession(sessionId);
+            }
+        };
+    }
+
+    private static boolean isOk(Result result) {
+        return result.getStatus() == Result.Status.OK;
+    }
+
+    @Override
+    public void close() {
+    }
+}
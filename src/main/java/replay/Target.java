@@ -0,0 +1,31 @@
+package replay;
+
+import java.io.Closeable;
+import java.util.List;
+
+// Where a replay sends the captured statements
+interface Target extends Closeable {
+
+    interface Connection extends Closeable {
+        // Whether the statement succeeded
+        boolean query(String query) throws Exception;
+
+        boolean batch(List<String> queries, boolean atomic) throws Exception;
+    }
+
+    // With a session, BEGIN, COMMIT and ROLLBACK apply to the statements sent through the
+    // connection, which are sent one at a time. Without one, the connection may be shared by
+    // several threads.
+    Connection open(boolean session) throws Exception;
+
+    // local:<database file>, http://host:port or rmi://host:port
+    static Target of(String spec) throws Exception {
+        if (spec.startsWith("local:")) return new LocalTarget(spec.substring("local:".length()));
+        if (spec.startsWith("http://")) return new RestTarget(spec);
+        if (spec.startsWith("rmi://")) {
+            String[] hostPort = spec.substring("rmi://".length()).split(":");
+            return new RmiTarget(hostPort[0], hostPort.length > 1 ? Integer.parseInt(hostPort[1]) : 12300);
+        }
+        throw new Exception(String.format("Unknown target '%s'", spec));
+    }
+}
@@ -0,0 +1,117 @@
+package replication;
+
+import database.Database;
+import database.MutationLog;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Ships a database's mutation log to replicas. A replica that connects first gets a copy of the
+// database, then every entry logged after the copy, and a heartbeat with the log's position
+// whenever there has been nothing to send for a while. The messages are
+//   [byte SNAPSHOT][long sequence][int byte count][database JSON in UTF-8]
+//   [byte ENTRY][long sequence][int statement count]([int byte count][statement in UTF-8])...
+//   [byte HEARTBEAT][long sequence]
+public class Primary implements Runnable {
+    static final byte SNAPSHOT = 0;
+    static final byte ENTRY = 1;
+    static final byte HEARTBEAT = 2;
+
+    static final long HEARTBEAT_MILLIS = 1000;
+
+    private final Database database;
+    private final ServerSocket serverSocket;
+
+    public Primary(Database database, int port) throws IOException {
+        this.database = database;
+        this.serverSocket = new ServerSocket(port);
+    }
+
+    public void start() {
+        Thread thread = new Thread(this, "replication-primary");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    @Override
+    public void run() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread thread = new Thread(() -> ship(socket), "replication-shipper");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) e.printStackTrace();
+            }
+        }
+    }
+
+    private static class Entry {
+        final long sequence;
+        final List<String> statements;
+
+        Entry(long sequence, List<String> statements) {
+            this.sequence = sequence;
+            this.statements = statements;
+        }
+    }
+
+    private void ship(Socket socket) {
+        // The log hands entries over with writers still locked, so they are only queued there
+        BlockingQueue<Entry> entries = new LinkedBlockingQueue<>();
+        MutationLog.Listener listener = (sequence, statements) -> entries.add(new Entry(sequence, statements));
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            socket.setTcpNoDelay(true);
+
+            StringWriter snapshot = new StringWriter();
+            long sequence = database.subscribe(listener, snapshot);
+            byte[] bytes = snapshot.toString().getBytes(StandardCharsets.UTF_8);
+
+            out.writeByte(SNAPSHOT);
+            out.writeLong(sequence);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.flush();
+
+            while (true) {
+                Entry entry = entries.poll(HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                if (entry == null) {
+                    out.writeByte(HEARTBEAT);
+                    out.writeLong(database.getLog().getSequence());
+                    out.flush();
+                    continue;
+                }
+
+                out.writeByte(ENTRY);
+                out.writeLong(entry.sequence);
+                out.writeInt(entry.statements.size());
+                for (String statement : entry.statements) {
+                    byte[] statementBytes = statement.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(statementBytes.length);
+                    out.write(statementBytes);
+                }
+                if (entries.isEmpty()) out.flush();
+            }
+        } catch (IOException | InterruptedException e) {
+            System.err.println("Replica " + socket.getRemoteSocketAddress() + " disconnected: " + e);
+        } finally {
+            database.getLog().removeListener(listener);
+        }
+    }
+}
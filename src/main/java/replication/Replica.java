@@ -0,0 +1,82 @@
+package replication;
+
+import database.Database;
+import database.DatabaseReader;
+import database.Result;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Keeps an in-memory copy of a primary's database up to date from its mutation log. The copy
+// only serves reads; SHOW REPLICATION on it tells how far behind the primary it is, whether
+// entries failed to apply, and whether it lost the primary, after which it stays as it was.
+public class Replica implements Runnable {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final Database database;
+
+    // Returns once the copy of the database has arrived
+    public Replica(String host, int port) throws Exception {
+        socket = new Socket(host, port);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        if (in.readByte() != Primary.SNAPSHOT) throw new IOException("The primary didn't start with a snapshot");
+        long sequence = in.readLong();
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+
+        database = new DatabaseReader(null).read(new StringReader(new String(bytes, StandardCharsets.UTF_8)));
+        database.setFilePath(null);
+        database.startReplica(sequence);
+    }
+
+    public Database getDatabase() {
+        return database;
+    }
+
+    public void start() {
+        Thread thread = new Thread(this, "replication-replica");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                byte type = in.readByte();
+                long sequence = in.readLong();
+
+                if (type == Primary.HEARTBEAT) {
+                    database.setPrimarySequence(sequence);
+                    continue;
+                }
+
+                if (type != Primary.ENTRY) throw new IOException(String.format("Unknown message type %d", type));
+                int count = in.readInt();
+                List<String> statements = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    statements.add(new String(bytes, StandardCharsets.UTF_8));
+                }
+
+                database.setPrimarySequence(sequence);
+                Result result = database.replay(sequence, statements);
+                if (result.getStatus() == Result.Status.FAIL) {
+                    System.err.println(String.format("Entry %d of the primary's log failed: %s", sequence, result.getReport()));
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Lost the connection to the primary: " + e);
+            database.detachReplica("Lost the connection to the primary: " + e.getMessage());
+        }
+    }
+}
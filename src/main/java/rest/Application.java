@@ -1,7 +1,10 @@
 package rest;
 
+import database.Database;
+import database.DatabaseReader;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Bean;
 
 @SpringBootApplication
 public class Application {
@@ -9,4 +12,14 @@ public class Application {
     public static void main(String[] args) {
         SpringApplication.run(Application.class, args);
     }
+
+    @Bean
+    public Database database() {
+        try {
+            return new DatabaseReader("test.json").read();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return new Database("test.json");
+        }
+    }
 }
\ No newline at end of file
@@ -1,71 +1,270 @@
 package rest;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import database.Change;
+import database.ChangeFeed;
 import database.Database;
-import database.DatabaseReader;
 import database.Result;
+import database.Session;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
-@RestController
+@RestController("restDatabaseController")
 public class DatabaseController {
 
+    // Attribute of the HTTP session holding the database session, created by the first BEGIN
+    private static final String SESSION = "databaseSession";
+
+    private static final String NDJSON = "application/x-ndjson";
+
+    private static final long HEARTBEAT_SECONDS = 15;
+
+    // Sends the heartbeats of all subscriptions
+    private static final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "subscription-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private Database database;
 
-    public DatabaseController() {
-        try {
-            database = new DatabaseReader("test.json").read();
-        } catch (Exception e) {
-            database = new Database("test.json");
-            e.printStackTrace();
-        }
+    @Autowired
+    private ObjectMapper mapper;
+
+    // The database is a bean of the application, so that other front-ends can share it
+    public DatabaseController(Database database) {
+        this.database = database;
     }
 
     @GetMapping(value = "/database/tables")
-    public Result tables() {
-        return database.query("list tables");
+    public Result tables(@SessionAttribute(name = SESSION, required = false) Session session) {
+        return database.query("list tables", session);
     }
 
     @DeleteMapping(value = "/database/tables/delete/{tableName}")
-    public Result dropTable(@PathVariable String tableName) {
-        return database.query(String.format("drop table %s", tableName));
+    public Result dropTable(@PathVariable String tableName, @SessionAttribute(name = SESSION, required = false) Session session) {
+        return database.query(String.format("drop table %s", tableName), session);
     }
 
     @PostMapping(value = "/database/tables/create/{tableName}/{columns}")
     public Result createTable(@PathVariable String columns,
-                              @PathVariable String tableName) {
-        return database.query(String.format("create table %s (%s)", tableName, columns));
+                              @PathVariable String tableName,
+                              @SessionAttribute(name = SESSION, required = false) Session session) {
+        return database.query(String.format("create table %s (%s)", tableName, columns), session);
     }
 
     @GetMapping(value = "/database/{tableName}/select/{columns}/{condition}")
     public Result selectCondition(@PathVariable String columns,
                                   @PathVariable String tableName,
-                                  @PathVariable String condition) {
-        return database.query(String.format("select %s from %s where %s", columns, tableName, condition));
+                                  @PathVariable String condition,
+                                  @SessionAttribute(name = SESSION, required = false) Session session,
+                                  WebRequest request) {
+        return conditional(request, String.format("select %s from %s where %s", columns, tableName, condition), session, tableName);
     }
 
     @GetMapping(value = "/database/{tableName}/select/{columns}")
     public Result select(@PathVariable String columns,
-                         @PathVariable String tableName) {
-        return database.query(String.format("select %s from %s", columns, tableName));
+                         @PathVariable String tableName,
+                         @SessionAttribute(name = SESSION, required = false) Session session,
+                         WebRequest request) {
+        return conditional(request, String.format("select %s from %s", columns, tableName), session, tableName);
+    }
+
+    @GetMapping(value = "/database/{tableName}/stream/{columns}/{condition}", produces = NDJSON)
+    public StreamingResponseBody streamSelectCondition(@PathVariable String columns,
+                                                       @PathVariable String tableName,
+                                                       @PathVariable String condition,
+                                                       @SessionAttribute(name = SESSION, required = false) Session session) {
+        return stream(String.format("select %s from %s where %s", columns, tableName, condition), session);
+    }
+
+    @GetMapping(value = "/database/{tableName}/stream/{columns}", produces = NDJSON)
+    public StreamingResponseBody streamSelect(@PathVariable String columns,
+                                              @PathVariable String tableName,
+                                              @SessionAttribute(name = SESSION, required = false) Session session) {
+        return stream(String.format("select %s from %s", columns, tableName), session);
+    }
+
+    // Server-sent events named insert, update and delete, each a Change with its offset as the event
+    // id. A reconnecting EventSource resumes through Last-Event-ID; other clients may pass offset.
+    @GetMapping(value = "/database/{tableName}/subscribe/{condition}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribeCondition(@PathVariable String tableName,
+                                         @PathVariable String condition,
+                                         @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId,
+                                         @RequestParam(defaultValue = "-1") long offset) {
+        return subscribe(String.format("subscribe %s where %s", tableName, condition), lastEventId != null ? lastEventId : offset);
+    }
+
+    @GetMapping(value = "/database/{tableName}/subscribe", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribe(@PathVariable String tableName,
+                                @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId,
+                                @RequestParam(defaultValue = "-1") long offset) {
+        return subscribe(String.format("subscribe %s", tableName), lastEventId != null ? lastEventId : offset);
     }
 
     @PostMapping(value = "/database/{tableName}/insert/{columns}/{values}")
     public Result insert(@PathVariable String columns,
                          @PathVariable String tableName,
-                         @PathVariable String values) {
-        return database.query(String.format("insert into %s (%s) values (%s)", tableName, columns, values));
+                         @PathVariable String values,
+                         @SessionAttribute(name = SESSION, required = false) Session session) {
+        return database.query(String.format("insert into %s (%s) values (%s)", tableName, columns, values), session);
     }
 
     @DeleteMapping(value = "/database/{tableName}/delete/{condition}")
     public Result delete(@PathVariable String tableName,
-                         @PathVariable String condition) {
-        return database.query(String.format("delete from %s where %s", tableName, condition));
+                         @PathVariable String condition,
+                         @SessionAttribute(name = SESSION, required = false) Session session) {
+        return database.query(String.format("delete from %s where %s", tableName, condition), session);
     }
 
     @GetMapping(value = "/database/{tableLeftName}/product/{tableRightName}")
-    public Result cartesianProduct(@PathVariable String tableLeftName, @PathVariable String tableRightName) {
-        return database.query(String.format("cartesian product %s by %s", tableLeftName, tableRightName));
+    public Result cartesianProduct(@PathVariable String tableLeftName, @PathVariable String tableRightName, @SessionAttribute(name = SESSION, required = false) Session session, WebRequest request) {
+        return conditional(request, String.format("cartesian product %s by %s", tableLeftName, tableRightName), session, tableLeftName, tableRightName);
+    }
+
+    @GetMapping(value = "/database/{tableLeftName}/product/{tableRightName}/stream", produces = NDJSON)
+    public StreamingResponseBody streamCartesianProduct(@PathVariable String tableLeftName, @PathVariable String tableRightName, @SessionAttribute(name = SESSION, required = false) Session session) {
+        return stream(String.format("cartesian product %s by %s", tableLeftName, tableRightName), session);
+    }
+
+    // Takes a JSON array of queries and answers with an array of their results
+    @PostMapping(value = "/database/batch")
+    public List<Result> batch(@RequestBody List<String> queries,
+                              @RequestParam(name = "atomic", required = false, defaultValue = "false") boolean atomic) {
+        return database.batch(queries, atomic);
+    }
+
+    @PostMapping(value = "/database/transaction/begin")
+    public Result begin(HttpSession httpSession) {
+        Session session = (Session) httpSession.getAttribute(SESSION);
+        if (session == null) {
+            session = new Session();
+            httpSession.setAttribute(SESSION, session);
+        }
+        return database.query("begin", session);
+    }
+
+    @PostMapping(value = "/database/transaction/commit")
+    public Result commit(@SessionAttribute(name = SESSION, required = false) Session session) {
+        return database.query("commit", session);
+    }
+
+    @PostMapping(value = "/database/transaction/rollback")
+    public Result rollback(@SessionAttribute(name = SESSION, required = false) Session session) {
+        return database.query("rollback", session);
+    }
+
+    // The queries waiting or running, with the ids to cancel them by
+    @GetMapping(value = "/database/queries")
+    public Result queries() {
+        return database.query("show queries");
+    }
+
+    @DeleteMapping(value = "/database/queries/{queryId}")
+    public Result cancel(@PathVariable long queryId) {
+        return database.query(String.format("cancel %d", queryId));
+    }
+
+    // Answers 304 without running the query when the client already holds the result for the
+    // current versions of the tables; the tag is weak since the body may go out compressed
+    private Result conditional(WebRequest request, String query, Session session, String... tableNames) {
+        boolean notModified = request.checkNotModified("W/\"" + database.getVersionTag(tableNames) + "\"");
+        database.getMetrics().recordConditional(notModified);
+        if (notModified) return null;
+        return database.query(query, session);
+    }
+
+    // Never times out; the subscription ends when the client goes away and the next send fails. A
+    // comment goes out every HEARTBEAT_SECONDS, so that a client gone from a quiet table is noticed
+    // too and proxies don't close the idle connection. A subscription that can't start answers with
+    // a single fail event holding the report.
+    private SseEmitter subscribe(String query, long offset) {
+        SseEmitter emitter = new SseEmitter(0L);
+        try {
+            ChangeFeed.Subscription subscription = database.subscribe(query, offset, new ChangeFeed.Listener() {
+                @Override
+                public void changed(Change change) throws Exception {
+                    emitter.send(SseEmitter.event()
+                            .id(Long.toString(change.getOffset()))
+                            .name(change.getType().name().toLowerCase())
+                            .data(change, MediaType.APPLICATION_JSON));
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    emitter.completeWithError(e);
+                }
+            });
+            ScheduledFuture<?> heartbeat = heartbeats.scheduleWithFixedDelay(() -> {
+                try {
+                    emitter.send(SseEmitter.event().comment("heartbeat"));
+                } catch (Exception e) {
+                    subscription.close();
+                    emitter.completeWithError(e);
+                }
+            }, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+            Runnable end = () -> {
+                heartbeat.cancel(false);
+                subscription.close();
+            };
+            emitter.onCompletion(end);
+            emitter.onTimeout(end);
+        } catch (Exception e) {
+            try {
+                emitter.send(SseEmitter.event().name("fail").data(e.getMessage()));
+                emitter.complete();
+            } catch (IOException sendFailure) {
+                emitter.completeWithError(sendFailure);
+            }
+        }
+        return emitter;
+    }
+
+    // Writes each row as one line of JSON as soon as the query finds it, so nothing is collected on
+    // the server; the last line is the Result itself, without rows, telling how the query ended.
+    // The stream has no time limit. The rows are written by the thread running the query and the
+    // last line by this one, which gets there first if the wait for the query is interrupted; the
+    // lock keeps their writes apart and lets no row in after the last line.
+    private StreamingResponseBody stream(String query, Session session) {
+        return out -> {
+            Object lock = new Object();
+            boolean[] first = {true};
+            boolean[] ended = {false};
+            Result result = database.query(query, session, row -> {
+                synchronized (lock) {
+                    try {
+                        if (ended[0]) throw new IOException("The stream has already ended");
+                        out.write(mapper.writeValueAsBytes(row));
+                        out.write('\n');
+                        // Get the headers and the first row out without waiting for the buffer to fill
+                        if (first[0]) out.flush();
+                        first[0] = false;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+
+            synchronized (lock) {
+                ended[0] = true;
+                out.write(mapper.writeValueAsBytes(result));
+                out.write('\n');
+            }
+        };
     }
 }
\ No newline at end of file
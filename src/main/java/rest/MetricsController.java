@@ -0,0 +1,31 @@
+package rest;
+
+import database.Database;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+// The database's QueryMetrics for scrapers: as JSON, and in the Prometheus text format
+@RestController("metricsController")
+public class MetricsController {
+
+    private static final String PROMETHEUS = "text/plain;version=0.0.4;charset=utf-8";
+
+    private Database database;
+
+    public MetricsController(Database database) {
+        this.database = database;
+    }
+
+    @GetMapping(value = "/metrics", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Map<String, Object> metrics() {
+        return database.getMetrics().toMap();
+    }
+
+    @GetMapping(value = "/metrics/prometheus", produces = PROMETHEUS)
+    public String prometheus() {
+        return database.getMetrics().toPrometheus();
+    }
+}
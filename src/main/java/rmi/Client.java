@@ -1,32 +1,111 @@
 package rmi;
 
+import database.Change;
+import database.Element;
 import database.Result;
-import dbconsoleviewer.DBConsoleViewer;
+import database.Row;
 
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
 import java.util.Scanner;
 
 public class Client {
+    private static final int PAGE_SIZE = 1000;
 
     public static void main(String[] args) {
         try {
             Registry registry = LocateRegistry.getRegistry(12300);
 
-            IDatabaseRemote stub = (IDatabaseRemote) registry.lookup("IDatabaseRemote");
+            IDatabaseRemoteV2 stub = (IDatabaseRemoteV2) registry.lookup("IDatabaseRemoteV2");
+            String sessionId = stub.openSession();
+            IChangeListener changePrinter = (IChangeListener) UnicastRemoteObject.exportObject(new ChangePrinter(), 0);
 
             while (true) {
                 System.out.print("> ");
                 Scanner scanner = new Scanner(System.in);
                 String command = scanner.nextLine();
 
-                Result result = stub.query(command);
+                // Changes are printed as they come while the console goes on
+                if (command.trim().toUpperCase().startsWith("SUBSCRIBE")) {
+                    stub.subscribe(command, -1, changePrinter);
+                    System.out.println("OK");
+                    continue;
+                }
 
-                DBConsoleViewer.processResult(result);
+                ResultPage result = stub.open(sessionId, command);
+
+                processResult(stub, result);
             }
         } catch (Exception e) {
             System.err.println("Client exception: " + e.toString());
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+
+    // Prints like DBConsoleViewer.processResult, fetching the rows a page at a time
+    private static void processResult(IDatabaseRemoteV2 stub, ResultPage result) throws Exception {
+        if (result.getStatus() == Result.Status.FAIL) {
+            System.out.println("FAIL");
+            System.out.println(result.getReport());
+            return;
+        }
+
+        if (!result.hasRows()) {
+            System.out.println("OK");
+            return;
+        }
+
+        if (result.getCursorId() == 0) {
+            System.out.println("Nothing was found");
+            return;
+        }
+
+        boolean first = true;
+        long cursorId = result.getCursorId();
+        while (cursorId != 0) {
+            ResultPage page = stub.fetch(cursorId, PAGE_SIZE);
+
+            if (first) {
+                for (String column : page.getColumns()) {
+                    System.out.print(String.format("%25s", column));
+                }
+                System.out.println();
+                System.out.println();
+                first = false;
+            }
+
+            for (int row = 0; row < page.getRowCount(); row++) {
+                for (int column = 0; column < page.getColumns().length; column++) {
+                    System.out.print(String.format("%25s", page.getValue(row, column)));
+                }
+                System.out.println();
+            }
+
+            cursorId = page.getCursorId();
+        }
+    }
+
+    private static class ChangePrinter implements IChangeListener {
+        @Override
+        public void changed(Change change) {
+            System.out.println(String.format("%d %s %s %s", change.getOffset(), change.getType(), format(change.getBefore()), format(change.getAfter())));
+        }
+
+        @Override
+        public void failed(String report) {
+            System.out.println("Subscription ended: " + report);
+        }
+
+        private static String format(Row row) {
+            if (row == null) return "-";
+
+            StringBuilder result = new StringBuilder("(");
+            for (Element element : row.getElements()) {
+                if (result.length() > 1) result.append(", ");
+                result.append(element.getColumn()).append('=').append(element.getValue());
+            }
+            return result.append(')').toString();
+        }
+    }
+}
@@ -1,12 +1,44 @@
 package rmi;
 
+import database.Change;
+import database.ChangeFeed;
 import database.Database;
 import database.DatabaseReader;
 import database.Result;
+import database.Row;
+import database.Session;
+import database.SessionRegistry;
 
-public class DatabaseRemote implements IDatabaseRemote {
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class DatabaseRemote implements IDatabaseRemote, IDatabaseRemoteV2 {
+    // Cursors left unread this long are dropped, and no more than this many are kept open at once
+    static final long CURSOR_IDLE_MILLIS = 10 * 60 * 1000;
+    static final int MAX_CURSORS = 1024;
 
     private Database database;
+    private SessionRegistry sessions = new SessionRegistry();
+
+    private ConcurrentMap<Long, Cursor> cursors = new ConcurrentHashMap<>();
+    private AtomicLong nextCursorId = new AtomicLong();
+
+    private static class Cursor {
+        final Iterator<Row> rows;
+        volatile long usedAt = System.currentTimeMillis();
+
+        Cursor(Iterator<Row> rows) {
+            this.rows = rows;
+        }
+    }
+
+    private ConcurrentMap<Long, ChangeFeed.Subscription> subscriptions = new ConcurrentHashMap<>();
+    private AtomicLong nextSubscriptionId = new AtomicLong();
 
     public DatabaseRemote(String databasePath) {
         try {
@@ -17,8 +49,107 @@ public class DatabaseRemote implements IDatabaseRemote {
         }
     }
 
+    public DatabaseRemote(Database database) {
+        this.database = database;
+    }
+
     public Result query(String msg) {
-        System.out.println("Accepted query: " + msg);
         return database.query(msg);
     }
-}
\ No newline at end of file
+
+    public String openSession() {
+        return sessions.open().getId();
+    }
+
+    public Result query(String sessionId, String msg) throws RemoteException {
+        try {
+            return database.query(msg, sessions.get(sessionId));
+        } catch (Exception e) {
+            throw new RemoteException(e.getMessage());
+        }
+    }
+
+    public void closeSession(String sessionId) {
+        sessions.close(sessionId);
+    }
+
+    public ResultPage open(String sessionId, String msg) throws RemoteException {
+        Session session = null;
+        try {
+            if (sessionId != null) session = sessions.get(sessionId);
+        } catch (Exception e) {
+            throw new RemoteException(e.getMessage());
+        }
+
+        Result result = database.query(msg, session);
+        if (result.getRows() == null || result.getRows().isEmpty()) return new ResultPage(result, 0);
+
+        expireCursors();
+        if (cursors.size() >= MAX_CURSORS) {
+            throw new RemoteException(String.format("Too many open cursors, at most %d are kept", MAX_CURSORS));
+        }
+
+        long cursorId = nextCursorId.incrementAndGet();
+        cursors.put(cursorId, new Cursor(result.getRows().iterator()));
+        return new ResultPage(result, cursorId);
+    }
+
+    public ResultPage fetch(long cursorId, int n) throws RemoteException {
+        if (n <= 0) throw new RemoteException(String.format("The page size must be positive, not %d", n));
+        Cursor cursor = cursors.get(cursorId);
+        if (cursor == null) throw new RemoteException(String.format("A cursor with the id '%d' doesn't exist", cursorId));
+
+        List<Row> page = new ArrayList<>();
+        synchronized (cursor) {
+            cursor.usedAt = System.currentTimeMillis();
+            while (page.size() < n && cursor.rows.hasNext()) page.add(cursor.rows.next());
+            if (cursor.rows.hasNext()) return new ResultPage(cursorId, page);
+        }
+
+        cursors.remove(cursorId);
+        return new ResultPage(0, page);
+    }
+
+    public void close(long cursorId) {
+        cursors.remove(cursorId);
+    }
+
+    // Swept whenever a cursor is opened, so the rows of clients that went away don't pile up
+    private void expireCursors() {
+        long now = System.currentTimeMillis();
+        cursors.values().removeIf(cursor -> now - cursor.usedAt > CURSOR_IDLE_MILLIS);
+    }
+
+    public long subscribe(String msg, long offset, IChangeListener listener) throws RemoteException {
+        long subscriptionId = nextSubscriptionId.incrementAndGet();
+        try {
+            subscriptions.put(subscriptionId, database.subscribe(msg, offset, new ChangeFeed.Listener() {
+                @Override
+                public void changed(Change change) throws Exception {
+                    listener.changed(change);
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    subscriptions.remove(subscriptionId);
+                    try {
+                        listener.failed(e.getMessage());
+                    } catch (RemoteException ignored) {
+                        // The client is gone
+                    }
+                }
+            }));
+        } catch (Exception e) {
+            throw new RemoteException(e.getMessage());
+        }
+        return subscriptionId;
+    }
+
+    public long unsubscribe(long subscriptionId) throws RemoteException {
+        ChangeFeed.Subscription subscription = subscriptions.remove(subscriptionId);
+        if (subscription == null) throw new RemoteException(String.format("A subscription with the id '%d' doesn't exist", subscriptionId));
+
+        subscription.close();
+        return subscription.getOffset();
+    }
+}
@@ -0,0 +1,16 @@
+package rmi;
+
+import database.Change;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+// Exported by clients that subscribe to changes; the server calls it for each change in turn
+public interface IChangeListener extends Remote {
+
+    // Throwing, as when the client is gone, ends the subscription
+    void changed(Change change) throws RemoteException;
+
+    // The subscription has ended on the server, e.g. after falling too far behind
+    void failed(String report) throws RemoteException;
+}
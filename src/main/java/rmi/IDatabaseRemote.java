@@ -8,4 +8,11 @@ import java.rmi.RemoteException;
 public interface IDatabaseRemote extends Remote {
 
     Result query(String msg) throws RemoteException;
+
+    // Transactions need a session: BEGIN, COMMIT and ROLLBACK apply to the session they're sent in
+    String openSession() throws RemoteException;
+
+    Result query(String sessionId, String msg) throws RemoteException;
+
+    void closeSession(String sessionId) throws RemoteException;
 }
\ No newline at end of file
@@ -0,0 +1,28 @@
+package rmi;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+// Results stay on the server behind a cursor and are fetched a page at a time
+public interface IDatabaseRemoteV2 extends Remote {
+
+    String openSession() throws RemoteException;
+
+    void closeSession(String sessionId) throws RemoteException;
+
+    // The returned page has no rows; its cursor id is 0 when the query has none to fetch.
+    // sessionId may be null for queries outside of a session.
+    ResultPage open(String sessionId, String msg) throws RemoteException;
+
+    // The cursor is closed by the server once its last row has been fetched
+    ResultPage fetch(long cursorId, int n) throws RemoteException;
+
+    void close(long cursorId) throws RemoteException;
+
+    // msg is a SUBSCRIBE statement; changes after offset are passed to the listener, or only those
+    // still to come with -1. Returns the id of the subscription.
+    long subscribe(String msg, long offset, IChangeListener listener) throws RemoteException;
+
+    // Returns the offset to subscribe from to resume where the subscription stopped
+    long unsubscribe(long subscriptionId) throws RemoteException;
+}
@@ -0,0 +1,204 @@
+package rmi;
+
+import database.Element;
+import database.Result;
+import database.Row;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Up to a page of rows of a result, written column by column: the column names go once per page,
+// columns holding only integers are sent as ints and other values as strings, each distinct
+// string of a column only once. Strings go as their length and UTF-8 bytes, as writeUTF can't take
+// more than 64K bytes.
+public class ResultPage implements Externalizable {
+    private static final byte INTS = 0;
+    private static final byte STRINGS = 1;
+
+    private Result.Status status;
+    private String report;
+    private long queryId;
+    // 0 when the result has no rows left to fetch
+    private long cursorId;
+    // Whether the query answers with rows at all, even if none were found
+    private boolean hasRows;
+
+    private String[] columns;
+    private String[][] values;
+    private int rowCount;
+
+    public ResultPage() {
+        columns = new String[0];
+        values = new String[0][];
+    }
+
+    ResultPage(Result result, long cursorId) {
+        this();
+        this.status = result.getStatus();
+        this.report = result.getReport();
+        this.queryId = result.getQueryId();
+        this.cursorId = cursorId;
+        this.hasRows = result.getRows() != null;
+    }
+
+    ResultPage(long cursorId, Collection<Row> rows) {
+        this.status = Result.Status.OK;
+        this.report = "";
+        this.cursorId = cursorId;
+        this.hasRows = true;
+        this.rowCount = rows.size();
+
+        List<String> names = new ArrayList<>();
+        if (!rows.isEmpty()) {
+            for (Element element : rows.iterator().next().getElements()) names.add(element.getColumn());
+        }
+        columns = names.toArray(new String[0]);
+
+        values = new String[columns.length][rowCount];
+        int row = 0;
+        for (Row r : rows) {
+            int column = 0;
+            for (Element element : r.getElements()) values[column++][row] = element.getValue();
+            row++;
+        }
+    }
+
+    public Result.Status getStatus() {
+        return status;
+    }
+
+    public String getReport() {
+        return report;
+    }
+
+    public long getQueryId() {
+        return queryId;
+    }
+
+    public long getCursorId() {
+        return cursorId;
+    }
+
+    public boolean hasRows() {
+        return hasRows;
+    }
+
+    public String[] getColumns() {
+        return columns;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public String getValue(int row, int column) {
+        return values[column][row];
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(status.ordinal());
+        writeString(out, report == null ? "" : report);
+        out.writeLong(queryId);
+        out.writeLong(cursorId);
+        out.writeBoolean(hasRows);
+
+        out.writeInt(columns.length);
+        out.writeInt(rowCount);
+        for (int column = 0; column < columns.length; column++) {
+            writeString(out, columns[column]);
+
+            String[] columnValues = values[column];
+            if (isInts(columnValues)) {
+                out.writeByte(INTS);
+                for (String value : columnValues) {
+                    out.writeBoolean(value != null);
+                    if (value != null) out.writeInt(Integer.parseInt(value));
+                }
+            } else {
+                out.writeByte(STRINGS);
+                Map<String, Integer> codes = new HashMap<>();
+                for (String value : columnValues) {
+                    if (value == null) {
+                        out.writeInt(-1);
+                        continue;
+                    }
+
+                    Integer code = codes.get(value);
+                    if (code != null) {
+                        out.writeInt(code);
+                    } else {
+                        // A code one past the known ones introduces a new string
+                        out.writeInt(codes.size());
+                        writeString(out, value);
+                        codes.put(value, codes.size());
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        status = Result.Status.values()[in.readByte()];
+        report = readString(in);
+        queryId = in.readLong();
+        cursorId = in.readLong();
+        hasRows = in.readBoolean();
+
+        columns = new String[in.readInt()];
+        rowCount = in.readInt();
+        values = new String[columns.length][rowCount];
+        for (int column = 0; column < columns.length; column++) {
+            columns[column] = readString(in);
+
+            String[] columnValues = values[column];
+            if (in.readByte() == INTS) {
+                for (int row = 0; row < rowCount; row++) {
+                    if (in.readBoolean()) columnValues[row] = Integer.toString(in.readInt());
+                }
+            } else {
+                List<String> strings = new ArrayList<>();
+                for (int row = 0; row < rowCount; row++) {
+                    int code = in.readInt();
+                    if (code < 0) continue;
+                    if (code == strings.size()) strings.add(readString(in));
+                    columnValues[row] = strings.get(code);
+                }
+            }
+        }
+    }
+
+    private static void writeString(ObjectOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ObjectInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Only values that come back the same from an int are sent as one
+    private static boolean isInts(String[] values) {
+        for (String value : values) {
+            if (value == null) continue;
+            try {
+                if (!Integer.toString(Integer.parseInt(value)).equals(value)) return false;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
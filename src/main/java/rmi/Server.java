@@ -1,20 +1,22 @@
 package rmi;
 
+import database.Database;
+
+import java.rmi.Remote;
 import java.rmi.registry.Registry;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class Server {
+    // The RMI runtime only holds exported objects weakly; without this they are collected, and
+    // calls fail with NoSuchObjectException, once no client holds a reference to them
+    private static final List<Remote> exported = new CopyOnWriteArrayList<>();
 
     public static void main(String args[]) {
         try {
-            DatabaseRemote obj = new DatabaseRemote("test.json");
-
-            IDatabaseRemote stub = (IDatabaseRemote) UnicastRemoteObject.exportObject(obj, 0);
-
-            Registry registry = LocateRegistry.createRegistry(12300);
-
-            registry.bind("IDatabaseRemote", stub);
+            serve(new DatabaseRemote("test.json"), 12300);
 
             System.err.println("Server ready");
         } catch (Exception e) {
@@ -22,4 +24,21 @@ public class Server {
             e.printStackTrace();
         }
     }
+
+    public static Registry serve(Database database, int port) throws Exception {
+        return serve(new DatabaseRemote(database), port);
+    }
+
+    private static Registry serve(DatabaseRemote obj, int port) throws Exception {
+        // The one exported object serves both versions of the interface
+        Remote stub = UnicastRemoteObject.exportObject(obj, 0);
+        exported.add(obj);
+
+        Registry registry = LocateRegistry.createRegistry(port);
+
+        registry.bind("IDatabaseRemote", stub);
+        registry.bind("IDatabaseRemoteV2", stub);
+
+        return registry;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,144 @@
+package server;
+
+import database.Database;
+import database.DatabaseReader;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import replication.Primary;
+import replication.Replica;
+import soap.QueryDatabase;
+import wire.WireServer;
+
+import javax.management.ObjectName;
+import javax.xml.ws.Endpoint;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+// Loads the database once and serves it over every front-end that is switched on, so they all
+// work on the same tables and a single writer keeps the file consistent. Settings come from the
+// properties file given as the first argument, falling back to system properties:
+//
+//   database.path        file to load and save               (test.json)
+//   database.capture     file to record the received statements to, for replay.Replay
+//   server.rest          REST API                             (true)
+//   server.mvc           query page of the MVC front-end      (true)
+//   server.http.port     port of the REST and MVC front-ends  (8080)
+//   server.soap          SOAP service                         (true)
+//   server.soap.address  address the SOAP service listens at  (http://localhost:7779/ws/database)
+//   server.rmi           RMI registry                         (true)
+//   server.rmi.port      port of the RMI registry             (12300)
+//   server.wire          binary protocol server               (true)
+//   server.wire.port     port of the binary protocol server   (12400)
+//   server.wire.workers  threads running its requests         (64)
+//   replication.role     none, primary or replica             (none)
+//   replication.port     port a primary ships its log from    (12500)
+//   replication.primary  host:port of a replica's primary
+//
+// Query metrics are registered over JMX as database:type=QueryMetrics, and served by the web
+// front-ends at /metrics (JSON) and /metrics/prometheus.
+//
+// A replica copies the database from its primary instead of loading the file, and serves reads
+// only; several of them, each with its own ports, can run next to the primary on one machine.
+public class DatabaseServer {
+
+    public static void main(String[] args) {
+        try {
+            Properties config = new Properties(System.getProperties());
+            if (args.length > 0) {
+                try (Reader reader = new FileReader(args[0])) {
+                    config.load(reader);
+                }
+            }
+
+            start(config);
+
+            System.err.println("Server ready");
+        } catch (Exception e) {
+            System.err.println("Server exception: " + e.toString());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    public static Database start(Properties config) throws Exception {
+        String role = config.getProperty("replication.role", "none");
+        Database database;
+        if (role.equals("replica")) {
+            String[] primary = config.getProperty("replication.primary", "localhost:12500").split(":");
+            Replica replica = new Replica(primary[0], Integer.parseInt(primary[1]));
+            replica.start();
+            database = replica.getDatabase();
+        } else {
+            String path = config.getProperty("database.path", "test.json");
+            try {
+                database = new DatabaseReader(path).read();
+            } catch (Exception e) {
+                e.printStackTrace();
+                database = new Database(path);
+            }
+        }
+
+        String capture = config.getProperty("database.capture");
+        if (capture != null) {
+            database.startCapture(capture);
+
+            // The server is stopped by ending the process; this writes out what is still buffered
+            Database captured = database;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    captured.stopCapture();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }, "capture-shutdown"));
+        }
+
+        ManagementFactory.getPlatformMBeanServer().registerMBean(database.getMetrics(), new ObjectName("database:type=QueryMetrics"));
+
+        if (role.equals("primary")) {
+            new Primary(database, Integer.parseInt(config.getProperty("replication.port", "12500"))).start();
+        }
+
+        List<Class<?>> controllers = new ArrayList<>();
+        if (isEnabled(config, "server.rest")) controllers.add(rest.DatabaseController.class);
+        if (isEnabled(config, "server.mvc")) controllers.add(springmvc.DatabaseController.class);
+        if (!controllers.isEmpty()) {
+            controllers.add(rest.MetricsController.class);
+            startWeb(database, controllers, config.getProperty("server.http.port", "8080"));
+        }
+
+        if (isEnabled(config, "server.soap")) {
+            Endpoint.publish(config.getProperty("server.soap.address", "http://localhost:7779/ws/database"), new QueryDatabase(database));
+        }
+
+        if (isEnabled(config, "server.rmi")) {
+            rmi.Server.serve(database, Integer.parseInt(config.getProperty("server.rmi.port", "12300")));
+        }
+
+        if (isEnabled(config, "server.wire")) {
+            new WireServer(database, Integer.parseInt(config.getProperty("server.wire.port", "12400")),
+                    Integer.parseInt(config.getProperty("server.wire.workers", "64"))).start();
+        }
+
+        return database;
+    }
+
+    private static ConfigurableApplicationContext startWeb(Database database, List<Class<?>> controllers, String port) {
+        List<Class<?>> sources = new ArrayList<>(controllers);
+        sources.add(WebApplication.class);
+
+        return new SpringApplicationBuilder(sources.toArray(new Class<?>[0]))
+                .properties("server.port=" + port)
+                .initializers(context -> context.getBeanFactory().registerSingleton("database", database))
+                .run();
+    }
+
+    private static boolean isEnabled(Properties config, String name) {
+        return Boolean.parseBoolean(config.getProperty(name, "true"));
+    }
+}
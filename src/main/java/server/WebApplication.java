@@ -0,0 +1,11 @@
+package server;
+
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.context.annotation.Configuration;
+
+// Spring setup for the HTTP front-ends of DatabaseServer; the controllers and the database are
+// registered by the server instead of being scanned for
+@Configuration
+@EnableAutoConfiguration
+public class WebApplication {
+}
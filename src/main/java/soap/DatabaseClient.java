@@ -1,7 +1,8 @@
 package soap;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import database.Result;
 import dbconsoleviewer.DBConsoleViewer;
 
@@ -11,6 +12,10 @@ import java.net.URL;
 import java.util.Scanner;
 
 public class DatabaseClient {
+    private static final int PAGE_SIZE = 1000;
+
+    private static final Gson gson = new Gson();
+
     public static void main(String[] args) throws Exception {
         URL url = new URL("http://localhost:7779/ws/database?wsdl");
 
@@ -19,15 +24,29 @@ public class DatabaseClient {
         QName qname = new QName("http://soap/", "QueryDatabaseService");
         Service service = Service.create(url, qname);
         IQueryDatabase databaseService = service.getPort(IQueryDatabase.class);
+        String sessionId = databaseService.openSession();
 
         while (true) {
             System.out.print("> ");
             Scanner scanner = new Scanner(System.in);
             String command = scanner.nextLine();
 
-            Gson gson = new GsonBuilder().create();
-            Result result = gson.fromJson(databaseService.query(command), Result.class);
-            DBConsoleViewer.processResult(result);
+            // A page reads as a Result, with the continuation token on top; each is parsed once
+            JsonObject page = gson.fromJson(databaseService.queryPage(sessionId, command, PAGE_SIZE), JsonObject.class);
+            DBConsoleViewer.processResult(gson.fromJson(page, Result.class));
+
+            String token = token(page);
+            while (token != null) {
+                page = gson.fromJson(databaseService.nextPage(token, PAGE_SIZE), JsonObject.class);
+                DBConsoleViewer.printRows(gson.fromJson(page, Result.class).getRows());
+                token = token(page);
+            }
         }
     }
+
+    // Left out of the last page
+    private static String token(JsonObject page) {
+        JsonElement token = page.get("token");
+        return token == null || token.isJsonNull() ? null : token.getAsString();
+    }
 }
@@ -11,4 +11,25 @@ import javax.jws.soap.SOAPBinding.Style;
 public interface IQueryDatabase {
     @WebMethod
     String query(String msg);
+
+    // Transactions need a session: BEGIN, COMMIT and ROLLBACK apply to the session they're sent in
+    @WebMethod
+    String openSession();
+
+    @WebMethod
+    String querySession(String sessionId, String msg);
+
+    @WebMethod
+    void closeSession(String sessionId);
+
+    // Answers with a QueryPage of at most pageSize rows; sessionId may be empty
+    @WebMethod
+    String queryPage(String sessionId, String msg, int pageSize);
+
+    @WebMethod
+    String nextPage(String token, int pageSize);
+
+    // Takes a JSON array of queries and answers with a JSON array of their results
+    @WebMethod
+    String batch(String queries, boolean atomic);
 }
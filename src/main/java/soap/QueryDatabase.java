@@ -1,16 +1,49 @@
 package soap;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import database.Database;
 import database.DatabaseReader;
+import database.Result;
+import database.Row;
+import database.Session;
+import database.SessionRegistry;
 
 import javax.jws.WebService;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 // Service Implementation
 @WebService(endpointInterface = "soap.IQueryDatabase")
 public class QueryDatabase implements IQueryDatabase {
+    // Gson instances are thread-safe, so one serves every call
+    private static final Gson gson = new Gson();
+
+    // Tokens not used for this long are dropped
+    static final long TOKEN_IDLE_MILLIS = 10 * 60 * 1000;
+
     private Database database;
+    private SessionRegistry sessions = new SessionRegistry();
+    // Results of paged queries that still have rows to send, by continuation token
+    private ConcurrentMap<String, Cursor> cursors = new ConcurrentHashMap<>();
+
+    private static class Cursor {
+        final Result result;
+        final Iterator<Row> rows;
+        volatile long usedAt = System.currentTimeMillis();
+
+        Cursor(Result result) {
+            this.result = result;
+            this.rows = result.getRows().iterator();
+        }
+    }
+
+    public QueryDatabase() {
+    }
+
+    public QueryDatabase(Database database) {
+        this.database = database;
+    }
 
     public void loadDatabase(String databasePath) {
         try {
@@ -23,7 +56,81 @@ public class QueryDatabase implements IQueryDatabase {
 
     @Override
     public String query(String msg) {
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
         return gson.toJson(database.query(msg));
     }
+
+    @Override
+    public String openSession() {
+        return sessions.open().getId();
+    }
+
+    @Override
+    public String querySession(String sessionId, String msg) {
+        return gson.toJson(database.query(msg, session(sessionId)));
+    }
+
+    @Override
+    public void closeSession(String sessionId) {
+        sessions.close(sessionId);
+    }
+
+    @Override
+    public String queryPage(String sessionId, String msg, int pageSize) {
+        checkPageSize(pageSize);
+        Result result = database.query(msg, sessionId == null || sessionId.isEmpty() ? null : session(sessionId));
+        if (result.getRows() == null) return gson.toJson(new QueryPage(result, null, null));
+
+        return gson.toJson(page(new Cursor(result), null, pageSize));
+    }
+
+    @Override
+    public String nextPage(String token, int pageSize) {
+        checkPageSize(pageSize);
+        Cursor cursor = cursors.get(token);
+        if (cursor == null) throw new IllegalArgumentException(String.format("A page with the token '%s' doesn't exist", token));
+
+        return gson.toJson(page(cursor, token, pageSize));
+    }
+
+    @Override
+    public String batch(String queries, boolean atomic) {
+        return gson.toJson(database.batch(Arrays.asList(gson.fromJson(queries, String[].class)), atomic));
+    }
+
+    private QueryPage page(Cursor cursor, String token, int pageSize) {
+        List<Row> page = new ArrayList<>();
+        synchronized (cursor) {
+            cursor.usedAt = System.currentTimeMillis();
+            while (page.size() < pageSize && cursor.rows.hasNext()) page.add(cursor.rows.next());
+            if (cursor.rows.hasNext()) {
+                if (token == null) {
+                    expireCursors();
+                    token = UUID.randomUUID().toString();
+                    cursors.put(token, cursor);
+                }
+                return new QueryPage(cursor.result, page, token);
+            }
+        }
+
+        if (token != null) cursors.remove(token);
+        return new QueryPage(cursor.result, page, null);
+    }
+
+    // Swept whenever a token is handed out, so the rows of clients that went away don't pile up
+    private void expireCursors() {
+        long now = System.currentTimeMillis();
+        cursors.values().removeIf(cursor -> now - cursor.usedAt > TOKEN_IDLE_MILLIS);
+    }
+
+    private static void checkPageSize(int pageSize) {
+        if (pageSize <= 0) throw new IllegalArgumentException(String.format("The page size must be positive, not %d", pageSize));
+    }
+
+    private Session session(String sessionId) {
+        try {
+            return sessions.get(sessionId);
+        } catch (Exception e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,43 @@
+package soap;
+
+import database.Result;
+import database.Row;
+
+import java.util.Collection;
+
+// Part of the rows of a result; the token fetches the next part and is null after the last one
+public class QueryPage {
+    private Result.Status status;
+    private String report;
+    private long queryId;
+    private Collection<Row> rows;
+    private String token;
+
+    QueryPage(Result result, Collection<Row> rows, String token) {
+        this.status = result.getStatus();
+        this.report = result.getReport();
+        this.queryId = result.getQueryId();
+        this.rows = rows;
+        this.token = token;
+    }
+
+    public Result.Status getStatus() {
+        return status;
+    }
+
+    public String getReport() {
+        return report;
+    }
+
+    public long getQueryId() {
+        return queryId;
+    }
+
+    public Collection<Row> getRows() {
+        return rows;
+    }
+
+    public String getToken() {
+        return token;
+    }
+}
@@ -1,11 +1,28 @@
 package springmvc;
 
+import database.Database;
+import database.DatabaseReader;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import rest.MetricsController;
 
 @SpringBootApplication
+@Import(MetricsController.class)
 public class Application {
     public static void main(String[] args) {
         SpringApplication.run(Application.class, args);
     }
+
+    @Bean
+    public Database database() {
+        try {
+            return new DatabaseReader("test.json").read();
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+            return null;
+        }
+    }
 }
\ No newline at end of file
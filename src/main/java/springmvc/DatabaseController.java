@@ -1,8 +1,8 @@
 package springmvc;
 
 import database.Database;
-import database.DatabaseReader;
 import database.Result;
+import database.Session;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -11,17 +11,14 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
-@Controller
+import javax.servlet.http.HttpSession;
+
+@Controller("mvcDatabaseController")
 public class DatabaseController {
     private Database database;
 
-    public DatabaseController() {
-        try {
-            database = new DatabaseReader("test.json").read();
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.exit(1);
-        }
+    public DatabaseController(Database database) {
+        this.database = database;
     }
 
     @GetMapping("/")
@@ -33,9 +30,13 @@ public class DatabaseController {
 
     @PostMapping(value = "/database", produces = { MediaType.APPLICATION_JSON_VALUE })
     @ResponseBody
-    public Result query(@RequestParam(name="query", required=true) String query)
+    public Result query(@RequestParam(name="query", required=true) String query, HttpSession httpSession)
     {
-        System.out.println(query);
-        return database.query(query);
+        Session session = (Session) httpSession.getAttribute("databaseSession");
+        if (session == null) {
+            session = new Session();
+            httpSession.setAttribute("databaseSession", session);
+        }
+        return database.query(query, session);
     }
 }
\ No newline at end of file
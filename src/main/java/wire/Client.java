@@ -0,0 +1,55 @@
+package wire;
+
+import database.Result;
+
+import java.util.Scanner;
+
+public class Client {
+
+    public static void main(String[] args) {
+        try (WireClient client = new WireClient("localhost", 12400)) {
+            while (true) {
+                System.out.print("> ");
+                Scanner scanner = new Scanner(System.in);
+                String command = scanner.nextLine();
+
+                processResult(client.query(command));
+            }
+        } catch (Exception e) {
+            System.err.println("Client exception: " + e.toString());
+            e.printStackTrace();
+        }
+    }
+
+    // Prints like DBConsoleViewer.processResult
+    public static void processResult(WireResult result) {
+        if (result.getStatus() == Result.Status.FAIL) {
+            System.out.println("FAIL");
+            System.out.println(result.getReport());
+            return;
+        }
+
+        if (result.getRows() == null) {
+            System.out.println("OK");
+            return;
+        }
+
+        if (result.getRows().isEmpty()) {
+            System.out.println("Nothing was found");
+            return;
+        }
+
+        for (String column : result.getColumns()) {
+            System.out.print(String.format("%25s", column));
+        }
+        System.out.println();
+        System.out.println();
+
+        for (String[] row : result.getRows()) {
+            for (String value : row) {
+                System.out.print(String.format("%25s", value));
+            }
+            System.out.println();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package wire;
+
+import database.Element;
+import database.Result;
+import database.Row;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+// Every frame is [int length of the rest][long request id][payload]. A request's payload is the
+// query in UTF-8. A response's payload is
+//   [byte status][string report][long query id][int column count, -1 without rows]
+//   [string per column][int row count][string per value, row by row]
+// where a string is [int byte count, -1 for null][UTF-8 bytes].
+final class Frames {
+    // Frames beyond this size are taken for a broken or hostile peer
+    static final int MAX_LENGTH = 64 << 20;
+
+    private Frames() {
+    }
+
+    static ByteBuffer request(long requestId, String query) {
+        byte[] bytes = query.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(12 + bytes.length);
+        frame.putInt(8 + bytes.length).putLong(requestId).put(bytes);
+        frame.flip();
+        return frame;
+    }
+
+    static ByteBuffer response(long requestId, Result result) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeLong(requestId);
+
+        out.writeByte(result.getStatus().ordinal());
+        writeString(out, result.getReport());
+        out.writeLong(result.getQueryId());
+
+        Collection<Row> rows = result.getRows();
+        if (rows == null) {
+            out.writeInt(-1);
+        } else {
+            List<String> columns = new ArrayList<>();
+            if (!rows.isEmpty()) {
+                for (Element element : rows.iterator().next().getElements()) columns.add(element.getColumn());
+            }
+            out.writeInt(columns.size());
+            for (String column : columns) writeString(out, column);
+
+            out.writeInt(rows.size());
+            for (Row row : rows) {
+                for (Element element : row.getElements()) writeString(out, element.getValue());
+            }
+        }
+        out.flush();
+
+        ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+        frame.putInt(0, frame.remaining() - 4);
+        return frame;
+    }
+
+    // Reads the payload of a response, after its length and request id
+    static WireResult readResult(DataInputStream in) throws IOException {
+        Result.Status status = Result.Status.values()[in.readByte()];
+        String report = readString(in);
+        long queryId = in.readLong();
+
+        int columnCount = in.readInt();
+        if (columnCount < 0) return new WireResult(status, report, queryId, null, null);
+
+        String[] columns = new String[columnCount];
+        for (int i = 0; i < columnCount; i++) columns[i] = readString(in);
+
+        int rowCount = in.readInt();
+        List<String[]> rows = new ArrayList<>(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            String[] row = new String[columnCount];
+            for (int j = 0; j < columnCount; j++) row[j] = readString(in);
+            rows.add(row);
+        }
+        return new WireResult(status, report, queryId, columns, rows);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
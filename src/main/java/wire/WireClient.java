@@ -0,0 +1,93 @@
+package wire;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Client of WireServer. send does not wait for earlier requests to be answered: any number of them
+// can be in flight on the one connection, and a reader thread matches responses to them by id.
+// Once the connection is gone, whatever is in flight fails and so does every later send.
+public class WireClient implements Closeable {
+    private final SocketChannel channel;
+    private final DataInputStream in;
+    private final ConcurrentMap<Long, CompletableFuture<WireResult>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    // Why the reader stopped; set before it fails what is in flight
+    private volatile IOException failure;
+
+    public WireClient(String host, int port) throws IOException {
+        channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.socket().setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024));
+
+        Thread reader = new Thread(this::readResponses, "wire-client-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    public CompletableFuture<WireResult> send(String query) throws IOException {
+        long id = nextId.incrementAndGet();
+        CompletableFuture<WireResult> result = new CompletableFuture<>();
+        inFlight.put(id, result);
+
+        // Looked at after the future is in, so either this sees the failure or the reader sees the future
+        if (failure != null) {
+            inFlight.remove(id);
+            throw new IOException("The connection is closed", failure);
+        }
+
+        ByteBuffer frame = Frames.request(id, query);
+        try {
+            synchronized (channel) {
+                while (frame.hasRemaining()) channel.write(frame);
+            }
+        } catch (IOException e) {
+            inFlight.remove(id);
+            throw e;
+        }
+        return result;
+    }
+
+    public WireResult query(String query) throws Exception {
+        return send(query).get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void readResponses() {
+        try {
+            while (true) {
+                in.readInt();
+                long id = in.readLong();
+                WireResult result = Frames.readResult(in);
+
+                CompletableFuture<WireResult> future = inFlight.remove(id);
+                if (future != null) future.complete(result);
+            }
+        } catch (Throwable e) {
+            // The connection is gone, or a response couldn't be read and the ones after it can't be
+            // told apart; either way nothing in flight will be answered any more
+            failure = e instanceof IOException ? (IOException) e : new IOException("Unreadable response from the server", e);
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            for (Long id : inFlight.keySet()) {
+                CompletableFuture<WireResult> future = inFlight.remove(id);
+                if (future != null) future.completeExceptionally(failure);
+            }
+        }
+    }
+}
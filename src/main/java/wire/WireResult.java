@@ -0,0 +1,43 @@
+package wire;
+
+import database.Result;
+
+import java.util.List;
+
+// A Result as it arrives over the wire protocol: rows are plain arrays of values in column order
+public class WireResult {
+    private final Result.Status status;
+    private final String report;
+    private final long queryId;
+    private final String[] columns;
+    private final List<String[]> rows;
+
+    public WireResult(Result.Status status, String report, long queryId, String[] columns, List<String[]> rows) {
+        this.status = status;
+        this.report = report;
+        this.queryId = queryId;
+        this.columns = columns;
+        this.rows = rows;
+    }
+
+    public Result.Status getStatus() {
+        return status;
+    }
+
+    public String getReport() {
+        return report;
+    }
+
+    public long getQueryId() {
+        return queryId;
+    }
+
+    // Null, like the rows, for queries that don't answer with rows
+    public String[] getColumns() {
+        return columns;
+    }
+
+    public List<String[]> getRows() {
+        return rows;
+    }
+}
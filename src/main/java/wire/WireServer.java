@@ -0,0 +1,251 @@
+package wire;
+
+import database.Database;
+import database.DatabaseReader;
+import database.Result;
+import database.Session;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Serves the binary protocol described in Frames. One selector thread does all socket I/O; the
+// queries run on worker threads. Each connection is a session of its own, and its requests run one
+// after another in the order they came in, so a client may pipeline a transaction safely; clients
+// wanting queries to run in parallel open more connections.
+//
+// A connection with many requests waiting is no longer read from, and one with many response bytes
+// waiting to be sent runs no more requests until they are, so a client that sends faster than it
+// reads is slowed down by TCP instead of filling the server's memory.
+public class WireServer implements Runnable {
+    static final int DEFAULT_WORKERS = 64;
+    private static final int MAX_WAITING_REQUESTS = 256;
+    private static final int MAX_WAITING_BYTES = 4 << 20;
+
+    private final Database database;
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    // Connections take a worker while they have requests to run
+    private final ExecutorService workers;
+    // Connections that got responses to send since the selector last looked
+    private final Queue<Connection> writable = new ConcurrentLinkedQueue<>();
+
+    public static void main(String[] args) {
+        try {
+            new WireServer(new DatabaseReader("test.json").read(), 12400, DEFAULT_WORKERS).start();
+
+            System.err.println("Server ready");
+        } catch (Exception e) {
+            System.err.println("Server exception: " + e.toString());
+            e.printStackTrace();
+        }
+    }
+
+    public WireServer(Database database, int port, int workerCount) throws IOException {
+        this.database = database;
+        this.workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "wire-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    // The one bound to, when port 0 was asked for
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public void start() {
+        new Thread(this, "wire-selector").start();
+    }
+
+    public void close() throws IOException {
+        serverChannel.close();
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (serverChannel.isOpen()) {
+            try {
+                selector.select();
+
+                Connection connection;
+                while ((connection = writable.poll()) != null) connection.updateInterest();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    try {
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) accept();
+                        if (key.isValid() && key.isReadable()) ((Connection) key.attachment()).read();
+                        if (key.isValid() && key.isWritable()) ((Connection) key.attachment()).write();
+                    } catch (IOException e) {
+                        key.cancel();
+                        key.channel().close();
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        try {
+            for (SelectionKey key : selector.keys()) key.channel().close();
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) return;
+
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+    }
+
+    private static class Request {
+        final long id;
+        final String query;
+
+        Request(long id, String query) {
+            this.id = id;
+            this.query = query;
+        }
+    }
+
+    private class Connection {
+        final SocketChannel channel;
+        final SelectionKey key;
+        final Session session = new Session();
+
+        ByteBuffer in = ByteBuffer.allocate(8192);
+        // Guarded by the connection
+        final Deque<ByteBuffer> out = new ArrayDeque<>();
+        int outBytes;
+
+        final Queue<Request> requests = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean running = new AtomicBoolean();
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        void read() throws IOException {
+            if (channel.read(in) < 0) throw new IOException("Connection closed by the client");
+
+            in.flip();
+            while (in.remaining() >= 4) {
+                int length = in.getInt(in.position());
+                if (length < 8 || length > Frames.MAX_LENGTH) throw new IOException("Invalid frame length " + length);
+                if (in.remaining() < 4 + length) {
+                    if (in.capacity() < 4 + length) {
+                        ByteBuffer larger = ByteBuffer.allocate(4 + length);
+                        larger.put(in);
+                        in = larger;
+                        in.flip();
+                    }
+                    break;
+                }
+
+                in.getInt();
+                long id = in.getLong();
+                byte[] query = new byte[length - 8];
+                in.get(query);
+                requests.add(new Request(id, new String(query, StandardCharsets.UTF_8)));
+            }
+            in.compact();
+
+            updateInterest();
+            schedule();
+        }
+
+        synchronized boolean isBackedUp() {
+            return outBytes >= MAX_WAITING_BYTES;
+        }
+
+        void schedule() {
+            if (!requests.isEmpty() && !isBackedUp() && running.compareAndSet(false, true)) workers.execute(this::drain);
+        }
+
+        void drain() {
+            Request request;
+            while (!isBackedUp() && (request = requests.poll()) != null) {
+                Result result = database.query(request.query, session);
+                try {
+                    respond(Frames.response(request.id, result));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            running.set(false);
+
+            // A request may have come in between the last poll and the reset
+            schedule();
+        }
+
+        void respond(ByteBuffer frame) {
+            synchronized (this) {
+                out.add(frame);
+                outBytes += frame.remaining();
+            }
+            writable.add(this);
+            selector.wakeup();
+        }
+
+        // Reads while few requests wait, which the workers taking them tell the selector about
+        // with their responses
+        void updateInterest() {
+            synchronized (this) {
+                if (!key.isValid()) return;
+                int ops = requests.size() < MAX_WAITING_REQUESTS ? SelectionKey.OP_READ : 0;
+                if (!out.isEmpty()) ops |= SelectionKey.OP_WRITE;
+                key.interestOps(ops);
+            }
+        }
+
+        void write() throws IOException {
+            boolean wasBackedUp;
+            synchronized (this) {
+                wasBackedUp = isBackedUp();
+                while (!out.isEmpty()) {
+                    ByteBuffer frame = out.peek();
+                    outBytes -= channel.write(frame);
+                    if (frame.hasRemaining()) break;
+                    out.poll();
+                }
+            }
+            updateInterest();
+
+            // Requests held back while the responses piled up can run again
+            if (wasBackedUp && !isBackedUp()) schedule();
+        }
+    }
+}
@@ -2,9 +2,29 @@ package database;
 
 import org.junit.jupiter.api.Test;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class DatabaseTest {
 
@@ -66,4 +86,641 @@ class DatabaseTest {
         assertNotNull(result.getRows().iterator().next().getElement("id"));
         assertNotNull(result.getRows().iterator().next().getElement("name"));
     }
-}
\ No newline at end of file
+
+    @Test
+    void filterRows() {
+        Database database = new Database(null);
+        assertSame(Result.Status.OK, database.query("create table test1 (INT id, STR name, STR breed)").getStatus());
+
+        assertSame(Result.Status.OK, database.query("insert into test1 (id, name, breed) values(1, Tom, British)").getStatus());
+        assertSame(Result.Status.OK, database.query("insert into test1 (id, name, breed) values(2, Murka, Sphynx)").getStatus());
+        assertSame(Result.Status.OK, database.query("insert into test1 (id, name, breed) values(3, Barsik, British)").getStatus());
+
+        Result result = database.query("select name from test1 where breed=British");
+        assertSame(Result.Status.OK, result.getStatus());
+        assertSame(2, result.getRows().size());
+
+        assertSame(Result.Status.OK, database.query("update test1 set name=Vasya where id=3").getStatus());
+        assertEquals("Vasya", database.query("select name from test1 where id=3").getRows().iterator().next().getElement("name").getValue());
+
+        assertSame(Result.Status.OK, database.query("delete from test1 where breed=British,id=1").getStatus());
+        assertSame(2, database.query("select * from test1").getRows().size());
+        assertSame(0, database.query("select * from test1 where unknown=1").getRows().size());
+    }
+
+    @Test
+    void legacyRowLayout() throws Exception {
+        // As written before rows were laid out by column ordinal: elements keyed by name, in any order
+        String legacy = "{\"tables\": {\"cats\": {\"name\": \"cats\", \"rows\": ["
+                + "{\"elements\": {\"name\": {\"value\": \"Tom\", \"column\": \"name\"}, \"id\": {\"value\": \"1\", \"column\": \"id\"}}},"
+                + "{\"elements\": {\"id\": {\"value\": \"2\", \"column\": \"id\"}}}],"
+                + "\"columns\": {\"id\": {\"type\": \"INT\", \"name\": \"id\"}, \"name\": {\"type\": \"STR\", \"name\": \"name\"}}}}}";
+
+        Database database = new DatabaseReader(null).read(new StringReader(legacy));
+        assertEquals("Tom", database.query("select name from cats where id=1").getRows().iterator().next().getElement("name").getValue());
+        assertSame(1, database.query("select id from cats where name=null").getRows().size());
+
+        StringWriter saved = new StringWriter();
+        database.subscribe((sequence, statements) -> { }, saved);
+        assertTrue(saved.toString().contains("\"elements\":{\"id\":{"));
+        assertSame(2, new DatabaseReader(null).read(new StringReader(saved.toString())).query("select * from cats").getRows().size());
+    }
+
+    @Test
+    void dictionaryEncoding() throws Exception {
+        File file = File.createTempFile("database", ".json");
+        file.deleteOnExit();
+
+        Database database = new Database(file.getPath());
+        assertSame(Result.Status.OK, database.query("create table test1 (INT id, STR name, CHAR grade)").getStatus());
+
+        for (int i = 0; i < Table.MAX_DICTIONARY_SIZE + 10; i++) {
+            assertSame(Result.Status.OK, database.query(String.format("insert into test1 (id, name, grade) values(%d, name%d, %s)", i, i, i % 2 == 0 ? "A" : "B")).getStatus());
+        }
+
+        assertSame(1, database.query("select id from test1 where name=name7").getRows().size());
+        assertEquals((Table.MAX_DICTIONARY_SIZE + 10) / 2, database.query("select id from test1 where grade=A").getRows().size());
+
+        database = new DatabaseReader(file.getPath()).read();
+        assertSame(1, database.query("select id from test1 where name=name260").getRows().size());
+        StringWriter saved = new StringWriter();
+        database.subscribe((sequence, statements) -> { }, saved);
+        // Written after the dictionary of name was closed, and not put in it on reading either
+        assertTrue(saved.toString().contains("\"value\":\"name260\""));
+        assertSame(0, database.query("select id from test1 where grade=C").getRows().size());
+        assertSame(Result.Status.OK, database.query("update test1 set grade=C where id=1").getStatus());
+        assertEquals("C", database.query("select grade from test1 where grade=C").getRows().iterator().next().getElement("grade").getValue());
+    }
+
+    @Test
+    void offHeapStorage() {
+        Database database = new Database(null);
+        assertSame(Result.Status.OK, database.query("create table test1 (INT id, STR name)").getStatus());
+        assertSame(Result.Status.OK, database.query("insert into test1 (id, name) values(1, Tom)").getStatus());
+
+        long bytesInUse = OffHeapAllocator.getBytesInUse();
+        assertSame(Result.Status.OK, database.query("alter table test1 storage off_heap").getStatus());
+        assertTrue(OffHeapAllocator.getBytesInUse() > bytesInUse);
+
+        assertSame(Result.Status.OK, database.query("insert into test1 (id) values(2)").getStatus());
+        assertSame(Result.Status.OK, database.query("update test1 set name=Murka where id=2").getStatus());
+        assertEquals("Murka", database.query("select name from test1 where id=2").getRows().iterator().next().getElement("name").getValue());
+
+        assertSame(Result.Status.OK, database.query("delete from test1 where id=1").getStatus());
+        assertSame(1, database.query("select * from test1").getRows().size());
+
+        assertSame(Result.Status.OK, database.query("alter table test1 storage heap").getStatus());
+        assertEquals(bytesInUse, OffHeapAllocator.getBytesInUse());
+        assertSame(1, database.query("select * from test1 where name=Murka").getRows().size());
+    }
+
+    @Test
+    void failedOffHeapCompaction() throws Exception {
+        Database database = new Database(null);
+        database.query("create table test1 (INT id, STR name)");
+        assertSame(Result.Status.FAIL, database.query("alter table test2 storage off_heap").getStatus());
+        database.query("alter table test1 storage off_heap");
+        // Each row takes up a segment of its own
+        String name = new String(new char[OffHeapRowList.SEGMENT_SIZE * 3 / 5]).replace('\0', 'x');
+        for (int i = 0; i < 5; i++) database.query(String.format("insert into test1 (id, name) values(%d, %s)", i, name));
+        // Too few dead rows for a compaction of its own
+        database.query("delete from test1 where id=0");
+
+        // Room for the first live row only
+        Table table = database.getTable("test1");
+        long bytesInUse = OffHeapAllocator.getBytesInUse();
+        long budget = OffHeapAllocator.getBudget();
+        OffHeapAllocator.setBudget(bytesInUse + OffHeapRowList.SEGMENT_SIZE);
+        try {
+            assertThrows(IllegalStateException.class, table::compact);
+        } finally {
+            OffHeapAllocator.setBudget(budget);
+        }
+        assertEquals(bytesInUse, OffHeapAllocator.getBytesInUse());
+        assertSame(4, database.query("select id from test1").getRows().size());
+        database.query("alter table test1 storage heap");
+    }
+
+    @Test
+    void tombstoneDeletes() throws Exception {
+        Database database = new Database(null);
+        assertSame(Result.Status.OK, database.query("create table test1 (INT id, STR name)").getStatus());
+        for (int i = 0; i < 8; i++) {
+            assertSame(Result.Status.OK, database.query(String.format("insert into test1 (id, name) values(%d, name%d)", i, i % 2)).getStatus());
+        }
+
+        Table table = database.getTable("test1");
+        assertSame(Result.Status.OK, database.query("delete from test1 where id=3").getStatus());
+        assertSame(7, table.getRows().size());
+        assertSame(3, database.query("select id from test1 where name=name1").getRows().size());
+
+        assertSame(Result.Status.OK, database.query("delete from test1 where name=name0").getStatus());
+        table.compact();
+        assertSame(3, table.getRows().size());
+        assertSame(Result.Status.OK, database.query("update test1 set name=name2 where id=5").getStatus());
+        assertSame(1, database.query("select id from test1 where name=name2").getRows().size());
+    }
+
+    @Test
+    void blockFilter() {
+        Database database = new Database(null);
+        assertSame(Result.Status.OK, database.query("create table test1 (INT id, INT bucket, STR name)").getStatus());
+        for (int i = 0; i < Filter.BLOCK_SIZE * 2 + 100; i++) {
+            assertSame(Result.Status.OK, database.query(String.format("insert into test1 (id, bucket, name) values(%d, %d, name%d)", i, i % 10, i % 3)).getStatus());
+        }
+
+        assertSame(Result.Status.OK, database.query("delete from test1 where bucket=0,name=name0").getStatus());
+        assertEquals(Filter.BLOCK_SIZE * 2 + 100 - 72, database.query("select id from test1").getRows().size());
+        assertEquals(72, database.query("select id from test1 where bucket=0,name=name1").getRows().size());
+        assertSame(1, database.query("select id from test1 where id=2147,bucket=7").getRows().size());
+    }
+
+    @Test
+    void zoneMaps() throws Exception {
+        File file = File.createTempFile("database", ".json");
+        file.deleteOnExit();
+
+        Database database = new Database(null);
+        assertSame(Result.Status.OK, database.query("create table events (INT id, DATE day, STR note)").getStatus());
+        for (int i = 0; i < Filter.BLOCK_SIZE * 3; i++) {
+            String note = i % 500 == 0 ? "null" : "note";
+            assertSame(Result.Status.OK, database.query(String.format("insert into events (id, day, note) values(%d, %02d-01-20%02d, %s)", i, i % 28 + 1, i / Filter.BLOCK_SIZE + 10, note)).getStatus());
+        }
+        assertSame(Result.Status.OK, database.query("insert into events (id) values(-1)").getStatus());
+
+        assertSame(1, database.query("select id from events where id=2500").getRows().size());
+        assertSame(0, database.query("select id from events where id=99999").getRows().size());
+        assertSame(36, database.query("select id from events where day=05-01-2011").getRows().size());
+        assertSame(8, database.query("select id from events where note=null").getRows().size());
+
+        assertSame(Result.Status.OK, database.query("update events set id=77777 where id=10").getStatus());
+        assertSame(1, database.query("select id from events where id=77777").getRows().size());
+
+        database.setFilePath(file.getPath());
+        database.save();
+        database = new DatabaseReader(file.getPath()).read();
+        assertSame(1, database.query("select id from events where id=77777").getRows().size());
+    }
+
+    @Test
+    void concurrentQueries() throws Exception {
+        File file = File.createTempFile("database", ".json");
+        file.deleteOnExit();
+
+        Database database = new Database(file.getPath());
+        assertSame(Result.Status.OK, database.query("create table test1 (INT id, STR name)").getStatus());
+        assertSame(Result.Status.OK, database.query("create table test2 (INT id, STR name)").getStatus());
+
+        List<Thread> threads = new ArrayList<>();
+        AtomicInteger failures = new AtomicInteger();
+        for (int t = 0; t < 4; t++) {
+            String table = t % 2 == 0 ? "test1" : "test2";
+            int offset = t * 1000;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 50; i++) {
+                    if (database.query(String.format("insert into %s (id, name) values(%d, name%d)", table, offset + i, i)).getStatus() != Result.Status.OK) failures.incrementAndGet();
+                    if (database.query(String.format("select * from %s where name=name%d", table, i)).getStatus() != Result.Status.OK) failures.incrementAndGet();
+                    if (i % 5 == 0 && database.query(String.format("delete from %s where id=%d", table, offset + i)).getStatus() != Result.Status.OK) failures.incrementAndGet();
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+
+        assertSame(0, failures.get());
+        assertEquals(80, database.query("select id from test1").getRows().size());
+        assertEquals(80, new DatabaseReader(file.getPath()).read().query("select id from test2").getRows().size());
+    }
+
+    @Test
+    void snapshotReads() throws Exception {
+        Database database = new Database(null);
+        assertSame(Result.Status.OK, database.query("create table test1 (INT id, STR name)").getStatus());
+        for (int i = 0; i < 10; i++) {
+            assertSame(Result.Status.OK, database.query(String.format("insert into test1 (id, name) values(%d, name%d)", i, i)).getStatus());
+        }
+
+        Table table = database.getTable("test1");
+        CountDownLatch scanStarted = new CountDownLatch(1);
+        CountDownLatch writesDone = new CountDownLatch(1);
+        AtomicInteger selected = new AtomicInteger();
+
+        Thread reader = new Thread(() -> {
+            try {
+                selected.set(table.select(table.getColumns(), row -> {
+                    scanStarted.countDown();
+                    try {
+                        writesDone.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    return true;
+                }).size());
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        reader.start();
+        scanStarted.await();
+
+        // The reader is stuck in the middle of its scan; writers must not wait for it
+        assertSame(Result.Status.OK, database.query("insert into test1 (id, name) values(10, name10)").getStatus());
+        assertSame(Result.Status.OK, database.query("update test1 set name=changed where id=1").getStatus());
+        assertSame(Result.Status.OK, database.query("delete from test1 where id=2").getStatus());
+        writesDone.countDown();
+        reader.join();
+
+        assertSame(10, selected.get());
+        assertSame(10, database.query("select * from test1").getRows().size());
+        assertSame(1, database.query("select * from test1 where name=changed").getRows().size());
+    }
+
+    @Test
+    void transactions() {
+        Database database = new Database(null);
+        Session session = new Session();
+        assertSame(Result.Status.OK, database.query("create table test1 (INT id, STR name)").getStatus());
+        assertSame(Result.Status.FAIL, database.query("begin").getStatus());
+
+        assertSame(Result.Status.OK, database.query("begin", session).getStatus());
+        assertSame(Result.Status.OK, database.query("insert into test1 (id, name) values(1, a)", session).getStatus());
+        assertSame(Result.Status.OK, database.query("update test1 set name=b where id=1", session).getStatus());
+        assertSame(0, database.query("select id from test1", session).getRows().size());
+        assertSame(Result.Status.OK, database.query("commit", session).getStatus());
+        assertSame(1, database.query("select id from test1 where name=b").getRows().size());
+
+        assertSame(Result.Status.OK, database.query("begin", session).getStatus());
+        assertSame(Result.Status.OK, database.query("insert into test1 (id, name) values(2, c)", session).getStatus());
+        assertSame(Result.Status.OK, database.query("insert into test1 (id, name) values(x, d)", session).getStatus());
+        assertSame(Result.Status.FAIL, database.query("commit", session).getStatus());
+        assertSame(1, database.query("select * from test1").getRows().size());
+
+        assertSame(Result.Status.OK, database.query("begin", session).getStatus());
+        assertSame(Result.Status.OK, database.query("delete from test1 where id=1", session).getStatus());
+        assertSame(Result.Status.OK, database.query("rollback", session).getStatus());
+        assertSame(1, database.query("select * from test1").getRows().size());
+        assertTrue(!session.isInTransaction());
+    }
+
+    @Test
+    void queryDeadlines() throws Exception {
+        Database database = new Database(null);
+        database.setExecutor(new QueryExecutor(1, 1, 1, 1, 1, 50, false));
+        assertSame(Result.Status.OK, database.query("create table test1 (INT id, STR name)").getStatus());
+        for (int i = 0; i < 3000; i++) {
+            database.query(String.format("insert into test1 (id, name) values(%d, name%d)", i, i));
+        }
+
+        Result result = database.query("cartesian product test1 by test1");
+        assertSame(Result.Status.FAIL, result.getStatus());
+        assertTrue(result.getReport().contains("ran out of time"));
+        assertSame(Result.Status.OK, database.query("select id from test1 where id=7").getStatus());
+
+        assertSame(Result.Status.FAIL, database.query(String.format("cancel %d", result.getQueryId())).getStatus());
+
+        // A write that runs out of time while it waits for its lock is never applied
+        Table table = database.getTable("test1");
+        table.writeLock().lock();
+        try {
+            assertTrue(database.query("insert into test1 (id, name) values(99999, late)").getReport().contains("ran out of time"));
+        } finally {
+            table.writeLock().unlock();
+        }
+        // The single write thread gets to the next write once the late one is done with
+        while (database.query("insert into test1 (id, name) values(3000, name3000)").getStatus() != Result.Status.OK) {
+            // Turned away while the late write still held the thread
+        }
+        assertSame(0, database.query("select id from test1 where id=99999").getRows().size());
+
+        // A running query is found by SHOW QUERIES and stopped by CANCEL
+        database.setExecutor(new QueryExecutor(1, 1, 1, 1, 1, 60_000, false));
+        CompletableFuture<Result> product = CompletableFuture.supplyAsync(() -> database.query("cartesian product test1 by test1"));
+        String queryId = null;
+        while (queryId == null) {
+            for (Row row : database.query("show queries").getRows()) {
+                if (row.getElement("query").getValue().startsWith("cartesian")) queryId = row.getElement("query_id").getValue();
+            }
+        }
+        assertSame(Result.Status.OK, database.query("cancel " + queryId).getStatus());
+        assertTrue(product.join().getReport().contains("was cancelled"));
+        assertTrue(database.query("show queries").getRows().isEmpty());
+
+        // Streamed results take as long as the client reads them
+        Result streamed = database.query("select id from test1 where id=7", null, row -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertSame(Result.Status.OK, streamed.getStatus());
+
+        // A stalled stream doesn't hold up other reads
+        CountDownLatch resume = new CountDownLatch(1);
+        CompletableFuture<Result> stalled = CompletableFuture.supplyAsync(() -> database.query("select id from test1 where id=7", null, row -> {
+            try {
+                resume.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }));
+        while (database.query("show queries").getRows().isEmpty()) Thread.yield();
+        assertSame(Result.Status.OK, database.query("select id from test1 where id=8").getStatus());
+        resume.countDown();
+        assertSame(Result.Status.OK, stalled.join().getStatus());
+    }
+
+    @Test
+    void streamRows() {
+        Database database = new Database(null);
+        assertSame(Result.Status.OK, database.query("create table test1 (INT id, STR name)").getStatus());
+        assertSame(Result.Status.OK, database.query("insert into test1 (id, name) values(1, a)").getStatus());
+        assertSame(Result.Status.OK, database.query("insert into test1 (id, name) values(2, b)").getStatus());
+
+        List<Row> rows = new ArrayList<>();
+        Result result = database.query("select name from test1", null, rows::add);
+        assertSame(Result.Status.OK, result.getStatus());
+        assertNull(result.getRows());
+        assertSame(2, rows.size());
+
+        rows.clear();
+        assertSame(Result.Status.OK, database.query("cartesian product test1 by test1", null, rows::add).getStatus());
+        assertSame(4, rows.size());
+    }
+
+    @Test
+    void batchQueries() {
+        Database database = new Database(null);
+        List<Result> results = database.batch(Arrays.asList(
+                "create table test1 (INT id, STR name)",
+                "insert into test1 (id, name) values(1, a)",
+                "insert into test1 (id, name) values(x, b)",
+                "select id from test1",
+                "begin"), false);
+        assertSame(5, results.size());
+        assertSame(Result.Status.OK, results.get(1).getStatus());
+        assertSame(Result.Status.FAIL, results.get(2).getStatus());
+        assertSame(1, results.get(3).getRows().size());
+        assertSame(Result.Status.FAIL, results.get(4).getStatus());
+
+        results = database.batch(Arrays.asList(
+                "insert into test1 (id, name) values(2, c)",
+                "insert into test1 (id, name) values(x, d)"), true);
+        assertSame(Result.Status.FAIL, results.get(0).getStatus());
+        assertSame(1, database.query("select id from test1").getRows().size());
+
+        results = database.batch(Arrays.asList(
+                "insert into test1 (id, name) values(2, c)",
+                "delete from test1 where id=1"), true);
+        assertSame(Result.Status.OK, results.get(1).getStatus());
+        assertSame(1, database.query("select id from test1 where name=c").getRows().size());
+    }
+
+    @Test
+    void replayMutationLog() throws Exception {
+        Database database = new Database(null);
+        assertSame(Result.Status.OK, database.query("create table test1 (INT id, STR name)").getStatus());
+
+        List<List<String>> entries = new ArrayList<>();
+        StringWriter snapshot = new StringWriter();
+        assertEquals(1L, database.subscribe((sequence, statements) -> entries.add(statements), snapshot));
+
+        Session session = new Session();
+        assertSame(Result.Status.OK, database.query("insert into test1 (id, name) values(1, a)").getStatus());
+        assertSame(Result.Status.FAIL, database.query("insert into test1 (id, name) values(x, b)").getStatus());
+        assertSame(Result.Status.OK, database.query("begin", session).getStatus());
+        assertSame(Result.Status.OK, database.query("insert into test1 (id, name) values(2, b)", session).getStatus());
+        assertSame(Result.Status.OK, database.query("update test1 set name=c where id=1", session).getStatus());
+        assertSame(Result.Status.OK, database.query("commit", session).getStatus());
+        assertSame(2, entries.size());
+        assertSame(2, entries.get(1).size());
+
+        Database replica = new DatabaseReader(null).read(new StringReader(snapshot.toString()));
+        replica.startReplica(1);
+        for (int i = 0; i < entries.size(); i++) replica.replay(i + 2, entries.get(i));
+
+        assertSame(2, replica.query("select id from test1").getRows().size());
+        assertSame(1, replica.query("select id from test1 where name=c").getRows().size());
+        assertSame(Result.Status.FAIL, replica.query("delete from test1 where id=1").getStatus());
+        assertEquals("0", replica.query("show replication").getRows().iterator().next().getElement("lag").getValue());
+
+        // An entry the copy can't apply leaves it behind the primary, which it reports
+        replica.replay(4, Collections.singletonList("insert into nothing (id) values(1)"));
+        Row replication = replica.query("show replication").getRows().iterator().next();
+        assertEquals("1", replication.getElement("failed_entries").getValue());
+        assertTrue(replication.getElement("last_error").getValue().startsWith("Entry 4 failed"));
+    }
+
+    @Test
+    void versionTags() throws Exception {
+        Database database = new Database(null);
+        database.query("create table test1 (INT id, STR name)");
+
+        String tag = database.getVersionTag("test1");
+        database.query("select * from test1");
+        assertEquals(tag, database.getVersionTag("test1"));
+
+        database.query("insert into test1 (id, name) values(1, a)");
+        assertNotEquals(tag, database.getVersionTag("test1"));
+
+        tag = database.getVersionTag("test1");
+        database.query("drop table test1");
+        database.query("create table test1 (INT id, STR name)");
+        assertNotEquals(tag, database.getVersionTag("test1"));
+    }
+
+    @Test
+    void subscribeToChanges() throws Exception {
+        Database database = new Database(null);
+        database.query("create table test1 (INT id, STR name)");
+        database.query("insert into test1 (id, name) values(1, a)");
+        long offset = database.getChanges().getOffset();
+
+        BlockingQueue<Change> received = new LinkedBlockingQueue<>();
+        ChangeFeed.Subscription subscription = database.subscribe("subscribe test1 where name=b", -1, received::add);
+
+        Session session = new Session();
+        database.query("insert into test1 (id, name) values(2, b)");
+        database.query("begin", session);
+        database.query("update test1 set name=b where id=1", session);
+        database.query("rollback", session);
+        database.query("update test1 set id=3 where name=b");
+        database.query("delete from test1 where id=1");
+
+        assertSame(Change.Type.INSERT, received.poll(5, TimeUnit.SECONDS).getType());
+        Change update = received.poll(5, TimeUnit.SECONDS);
+        assertSame(Change.Type.UPDATE, update.getType());
+        assertEquals("2", update.getBefore().getElement("id").getValue());
+        assertEquals("3", update.getAfter().getElement("id").getValue());
+        assertNull(received.poll(200, TimeUnit.MILLISECONDS));
+        subscription.close();
+
+        // Resuming from an earlier offset replays what came after it, without the filter here
+        subscription = database.subscribe("subscribe test1", offset, received::add);
+        assertEquals(offset + 1, received.poll(5, TimeUnit.SECONDS).getOffset());
+        assertSame(Result.Status.FAIL, database.query("subscribe test1").getStatus());
+        subscription.close();
+
+        // With nobody listening a change only takes up an offset, and nobody can resume across it
+        long last = database.getChanges().getOffset();
+        database.query("insert into test1 (id, name) values(4, c)");
+        assertEquals(last + 1, database.getChanges().getOffset());
+        assertThrows(Exception.class, () -> database.subscribe("subscribe test1", offset, received::add));
+        database.subscribe("subscribe test1", last + 1, received::add);
+    }
+
+    @Test
+    void abortedDeletePublishesNothing() throws Exception {
+        Database database = new Database(null);
+        database.query("create table test1 (INT id, STR name)");
+        List<String> inserts = new ArrayList<>();
+        for (int i = 0; i < 2 * Filter.BLOCK_SIZE; i++) inserts.add(String.format("insert into test1 (id, name) values(%d, a)", i));
+        database.batch(inserts, false);
+        database.query("create materialized view view1 as select id from test1");
+
+        BlockingQueue<Change> received = new LinkedBlockingQueue<>();
+        database.subscribe("subscribe test1", -1, received::add);
+
+        // Cancelled while the first block is scanned, so the scan stops before the second
+        QueryContext context = new QueryContext(1, "delete", 60_000);
+        Table table = database.getTable("test1");
+        assertThrows(QueryAbortedException.class, () -> context.call(() -> {
+            try {
+                table.delete(row -> {
+                    context.cancel();
+                    return true;
+                });
+            } catch (QueryAbortedException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            return new Result(Result.Status.OK);
+        }));
+
+        database.query("insert into test1 (id, name) values(-1, b)");
+        assertSame(Change.Type.INSERT, received.poll(5, TimeUnit.SECONDS).getType());
+        assertNull(received.poll(200, TimeUnit.MILLISECONDS));
+        assertEquals(2 * Filter.BLOCK_SIZE + 1, database.query("select * from test1").getRows().size());
+        assertEquals(2 * Filter.BLOCK_SIZE + 1, database.query("select * from view1").getRows().size());
+    }
+
+    @Test
+    void materializedViews() throws Exception {
+        Database database = new Database(null);
+        database.query("create table test1 (INT id, STR name, STR city)");
+        database.query("insert into test1 (id, name, city) values(1, a, x)");
+        database.query("insert into test1 (id, name, city) values(2, b, y)");
+
+        assertSame(Result.Status.OK, database.query("create materialized view view1 as select name from test1 where city=x").getStatus());
+        assertSame(1, database.query("select * from view1").getRows().size());
+
+        database.query("insert into test1 (id, name, city) values(3, a, x)");
+        database.query("update test1 set city=x where id=2");
+        database.query("update test1 set name=c where id=1");
+        database.query("delete from test1 where id=3");
+        assertEquals(Arrays.asList("b", "c"), database.query("select name from view1").getRows().stream()
+                .map(row -> row.getElement("name").getValue()).sorted().collect(Collectors.toList()));
+
+        assertSame(Result.Status.FAIL, database.query("insert into view1 (name) values(d)").getStatus());
+        assertSame(Result.Status.FAIL, database.query("drop table test1").getStatus());
+
+        StringWriter saved = new StringWriter();
+        database.subscribe((sequence, statements) -> { }, saved);
+        Database restored = new DatabaseReader(null).read(new StringReader(saved.toString()));
+        restored.query("delete from test1 where name=b");
+        assertSame(1, restored.query("select * from view1").getRows().size());
+
+        assertSame(Result.Status.OK, database.query("drop table view1").getStatus());
+        assertSame(Result.Status.OK, database.query("drop table test1").getStatus());
+    }
+
+    @Test
+    void queryMetrics() throws Exception {
+        Database database = new Database(null);
+        database.query("create table test1 (INT id, STR name)");
+        for (int i = 0; i < 10; i++) database.query(String.format("insert into test1 (id, name) values(%d, a)", i));
+        database.query("select name from test1 where id=3");
+        database.query("selec name from test1");
+        database.query("select nothing from test1");
+
+        QueryMetrics metrics = database.getMetrics();
+        assertEquals(Long.valueOf(10), metrics.getStatements().get("insert_row"));
+        assertEquals(Long.valueOf(2), metrics.getStatements().get("select_rows"));
+        assertEquals(Long.valueOf(1), metrics.getFailures().get("select_rows"));
+        assertEquals(1L, metrics.getInvalidQueries());
+        assertEquals(Long.valueOf(10), metrics.getRowsScanned().get("select_rows"));
+        assertEquals(Long.valueOf(1), metrics.getRowsReturned().get("select_rows"));
+        assertTrue(metrics.toPrometheus().contains("database_query_seconds_count{statement=\"insert_row\",phase=\"execute\"} 10"));
+        assertTrue(metrics.toPrometheus().contains("database_off_heap_bytes "));
+
+        // The queries of a batch count as if sent on their own
+        database.batch(Arrays.asList("insert into test1 (id, name) values(10, a)", "selec name from test1", "begin"), false);
+        assertEquals(Long.valueOf(11), metrics.getStatements().get("insert_row"));
+        assertEquals(Long.valueOf(1), metrics.getFailures().get("begin"));
+        assertEquals(2L, metrics.getInvalidQueries());
+
+        // A bucket's count is of the durations up to its bound, inclusive
+        assertSame(10, LatencyHistogram.bucketOf(1024));
+        assertSame(11, LatencyHistogram.bucketOf(1025));
+        assertSame(0, LatencyHistogram.bucketOf(1));
+    }
+
+    @Test
+    void slowQueryLog() throws Exception {
+        Database database = new Database(null);
+        database.setSlowQueryLog(new SlowQueryLog(null, 0));
+        database.query("create table test1 (INT id, STR name)");
+        database.query("insert into test1 (id, name) values(1, a)");
+        database.query("select name from test1 where id=1");
+
+        List<Row> rows = new ArrayList<>(database.query("show slow queries").getRows());
+        assertSame(3, rows.size());
+        assertEquals("select name from test1 where id=?", rows.get(0).getElement("query").getValue());
+        assertEquals("1", rows.get(0).getElement("rows_returned").getValue());
+        assertEquals("insert into test1 (id, name) values(?)", rows.get(1).getElement("query").getValue());
+
+        database.batch(Arrays.asList("insert into test1 (id, name) values(2, b)", "select name from test1 where id=2"), false);
+        database.batch(Collections.singletonList("delete from test1 where id=2"), true);
+        rows = new ArrayList<>(database.query("show slow queries").getRows());
+        assertSame(7, rows.size());
+        assertEquals("delete from test1 where id=?", rows.get(0).getElement("query").getValue());
+        assertEquals("1", rows.get(1).getElement("rows_returned").getValue());
+
+        // A copy read from a stream, as replicas are, doesn't log next to the file named in it
+        Database named = new Database("primary.json");
+        StringWriter saved = new StringWriter();
+        named.subscribe((sequence, statements) -> { }, saved);
+        assertNull(new DatabaseReader(null).read(new StringReader(saved.toString())).getSlowQueryLog().getPath());
+    }
+
+    @Test
+    void captureWorkload() throws Exception {
+        File file = File.createTempFile("workload", ".capture");
+        file.deleteOnExit();
+
+        Database database = new Database(null);
+        database.startCapture(file.getPath());
+        Session session = new Session();
+        database.query("create table test1 (INT id, STR name)");
+        database.query("begin", session);
+        database.query("insert into test1 (id, name) values(1, a)", session);
+        database.query("commit", session);
+        database.batch(Arrays.asList("insert into test1 (id) values(2)", "delete from test1 where id=1"), true);
+        database.stopCapture();
+        database.query("select * from test1");
+
+        List<WorkloadCapture.Entry> entries = WorkloadCapture.read(file.getPath());
+        assertSame(5, entries.size());
+        assertSame(0, entries.get(0).getSession());
+        assertSame(1, entries.get(2).getSession());
+        assertEquals("insert into test1 (id, name) values(1, a)", entries.get(2).getQueries().get(0));
+        assertSame(WorkloadCapture.Kind.ATOMIC_BATCH, entries.get(4).getKind());
+        assertEquals(2, entries.get(4).getQueries().size());
+        assertTrue(entries.get(4).getOffsetMicros() >= entries.get(0).getOffsetMicros());
+
+        new FileWriter(file).close();
+        Exception empty = assertThrows(Exception.class, () -> WorkloadCapture.read(file.getPath()));
+        assertTrue(empty.getMessage().contains("isn't a workload capture"));
+    }
+}
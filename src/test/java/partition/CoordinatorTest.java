@@ -0,0 +1,108 @@
+package partition;
+
+import database.Database;
+import database.Result;
+import org.junit.jupiter.api.Test;
+import wire.WireResult;
+import wire.WireServer;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CoordinatorTest {
+    private static final int NODES = 3;
+
+    private final List<Database> databases = new ArrayList<>();
+    private final List<WireServer> servers = new ArrayList<>();
+
+    private Coordinator start() throws Exception {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (int i = 0; i < NODES; i++) {
+            Database database = new Database(null);
+            WireServer server = new WireServer(database, 0, 2);
+            server.start();
+            databases.add(database);
+            servers.add(server);
+            addresses.add(new InetSocketAddress("localhost", server.getPort()));
+        }
+        return new Coordinator(addresses, null);
+    }
+
+    private void stop(Coordinator coordinator) throws Exception {
+        coordinator.close();
+        for (WireServer server : servers) server.close();
+    }
+
+    private int rowsOn(int node, String table) {
+        Result result = databases.get(node).query("select * from " + table);
+        return result.getRows() == null ? 0 : result.getRows().size();
+    }
+
+    @Test
+    void partitionedTable() throws Exception {
+        Coordinator coordinator = start();
+        try {
+            assertSame(Result.Status.OK, coordinator.query("create table test1 (INT id, STR name) partition by hash(id) into 3").getStatus());
+            for (int i = 0; i < 30; i++) {
+                assertSame(Result.Status.OK, coordinator.query(String.format("insert into test1 (id, name) values(%d, a)", i)).getStatus());
+            }
+
+            assertSame(30, coordinator.query("select * from test1").getRows().size());
+            assertEquals("5", coordinator.query("select id from test1 where id=5").getRows().get(0)[0]);
+            int spread = 0;
+            for (int node = 0; node < NODES; node++) {
+                assertTrue(rowsOn(node, "test1") < 30);
+                spread += rowsOn(node, "test1");
+            }
+            assertSame(30, spread);
+
+            assertSame(Result.Status.OK, coordinator.query("update test1 set name=b where id=5").getStatus());
+            assertSame(Result.Status.FAIL, coordinator.query("update test1 set id=50 where id=5").getStatus());
+            assertSame(Result.Status.OK, coordinator.query("delete from test1 where name=a").getStatus());
+            assertSame(1, coordinator.query("select * from test1").getRows().size());
+            assertSame(Result.Status.OK, coordinator.query("drop table test1").getStatus());
+        } finally {
+            stop(coordinator);
+        }
+    }
+
+    @Test
+    void failedCreateLeavesNoPart() throws Exception {
+        Coordinator coordinator = start();
+        try {
+            databases.get(1).query("create table test1 (INT id)");
+
+            assertSame(Result.Status.FAIL, coordinator.query("create table test1 (INT id, STR name) partition by hash(id) into 3").getStatus());
+            assertTrue(databases.get(0).query("list tables").getRows().isEmpty());
+            assertTrue(databases.get(2).query("list tables").getRows().isEmpty());
+            assertSame(1, databases.get(1).query("list tables").getRows().size());
+        } finally {
+            stop(coordinator);
+        }
+    }
+
+    @Test
+    void unspreadableStatements() throws Exception {
+        Coordinator coordinator = start();
+        try {
+            coordinator.query("create table test1 (INT id, STR name) partition by hash(id) into 3");
+            coordinator.query("create table test2 (INT id, STR name)");
+
+            WireResult view = coordinator.query("create materialized view view1 as select id from test1");
+            assertSame(Result.Status.FAIL, view.getStatus());
+            assertTrue(view.getReport().contains("partitioned"));
+            assertSame(Result.Status.OK, coordinator.query("create materialized view view2 as select id from test2").getStatus());
+
+            assertSame(Result.Status.FAIL, coordinator.query("show queries").getStatus());
+            assertSame(Result.Status.FAIL, coordinator.query("begin").getStatus());
+            assertSame(Result.Status.FAIL, coordinator.query("selec * from test2").getStatus());
+        } finally {
+            stop(coordinator);
+        }
+    }
+}
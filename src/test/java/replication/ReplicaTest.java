@@ -0,0 +1,46 @@
+package replication;
+
+import database.Database;
+import database.Result;
+import database.Row;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ReplicaTest {
+
+    private static Row replication(Database database) {
+        return database.query("show replication").getRows().iterator().next();
+    }
+
+    @Test
+    void followsPrimary() throws Exception {
+        Database database = new Database(null);
+        database.query("create table test1 (INT id, STR name)");
+        Primary primary = new Primary(database, 0);
+        primary.start();
+        Replica replica = new Replica("localhost", primary.getPort());
+        replica.start();
+        try {
+            // Longer than writeUTF could take
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < 70_000; i++) name.append((char) ('a' + i % 26));
+            assertSame(Result.Status.OK, database.query(String.format("insert into test1 (id, name) values(1, %s)", name)).getStatus());
+            assertSame(Result.Status.OK, database.query("insert into test1 (id, name) values(2, b)").getStatus());
+
+            Database copy = replica.getDatabase();
+            while (!replication(copy).getElement("sequence").getValue().equals("3")) Thread.sleep(10);
+            assertEquals(name.toString(), copy.query("select name from test1 where id=1").getRows().iterator().next().getElement("name").getValue());
+            assertEquals("following", replication(copy).getElement("state").getValue());
+
+            // Without its primary the copy says so instead of looking caught up
+            replica.close();
+            while (!replication(copy).getElement("state").getValue().equals("detached")) Thread.sleep(10);
+            assertSame(2, copy.query("select id from test1").getRows().size());
+        } finally {
+            replica.close();
+            primary.close();
+        }
+    }
+}
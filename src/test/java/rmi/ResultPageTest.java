@@ -0,0 +1,84 @@
+package rmi;
+
+import database.Database;
+import database.Element;
+import database.Result;
+import database.Row;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ResultPageTest {
+
+    private static ResultPage roundTrip(ResultPage page) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(page);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (ResultPage) in.readObject();
+        }
+    }
+
+    @Test
+    void roundTrip() throws Exception {
+        Database database = new Database(null);
+        database.query("create table test1 (INT id, INT rank, FLOAT score, STR name)");
+        // Longer than writeUTF could take, and not only ASCII
+        StringBuilder name = new StringBuilder("\u00e9");
+        for (int i = 0; i < 70_000; i++) name.append((char) ('a' + i % 26));
+        assertSame(Result.Status.OK, database.query("insert into test1 (id, rank, score, name) values(1, 5, 1.5, 007)").getStatus());
+        assertSame(Result.Status.OK, database.query("insert into test1 (id) values(2)").getStatus());
+        assertSame(Result.Status.OK, database.query(String.format("insert into test1 (id, rank, score, name) values(3, -7, 2, %s)", name)).getStatus());
+        assertSame(Result.Status.OK, database.query("insert into test1 (id, rank, score, name) values(4, 5, 1.5, 007)").getStatus());
+
+        List<Row> rows = new ArrayList<>(database.query("select * from test1").getRows());
+        ResultPage page = roundTrip(new ResultPage(7, rows));
+
+        assertEquals(7, page.getCursorId());
+        assertSame(Result.Status.OK, page.getStatus());
+        assertSame(4, page.getRowCount());
+        assertEquals(4, page.getColumns().length);
+        for (int row = 0; row < rows.size(); row++) {
+            int column = 0;
+            for (Element element : rows.get(row).getElements()) {
+                assertEquals(element.getColumn(), page.getColumns()[column]);
+                assertEquals(element.getValue(), page.getValue(row, column++));
+            }
+        }
+        assertEquals(name.toString(), page.getValue(2, 3));
+        assertNull(page.getValue(1, 1));
+        assertEquals("007", page.getValue(3, 3));
+
+        // A result without rows keeps its report
+        Result failed = database.query("select * from test2");
+        ResultPage empty = roundTrip(new ResultPage(failed, 0));
+        assertSame(Result.Status.FAIL, empty.getStatus());
+        assertEquals(failed.getReport(), empty.getReport());
+        assertSame(0, empty.getRowCount());
+    }
+
+    @Test
+    void fetchNeedsPositivePageSize() throws Exception {
+        Database database = new Database(null);
+        database.query("create table test1 (INT id)");
+        database.query("insert into test1 (id) values(1)");
+        database.query("insert into test1 (id) values(2)");
+
+        DatabaseRemote remote = new DatabaseRemote(database);
+        ResultPage opened = remote.open(null, "select * from test1");
+        assertThrows(RemoteException.class, () -> remote.fetch(opened.getCursorId(), 0));
+        assertSame(2, remote.fetch(opened.getCursorId(), 10).getRowCount());
+    }
+}
@@ -0,0 +1,90 @@
+package wire;
+
+import database.Database;
+import database.Result;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WireClientTest {
+
+    @Test
+    void pipelinedQueries() throws Exception {
+        WireServer server = new WireServer(new Database(null), 0, 2);
+        server.start();
+        try (WireClient client = new WireClient("localhost", server.getPort())) {
+            assertSame(Result.Status.OK, client.query("create table test1 (INT id, STR name)").getStatus());
+
+            // Far more than the server lets wait on one connection, sent without waiting for answers
+            List<CompletableFuture<WireResult>> inserts = new ArrayList<>();
+            for (int i = 0; i < 2000; i++) inserts.add(client.send(String.format("insert into test1 (id, name) values(%d, a)", i)));
+            for (CompletableFuture<WireResult> insert : inserts) assertSame(Result.Status.OK, insert.get().getStatus());
+
+            WireResult result = client.query("select id from test1 where id=1999");
+            assertEquals("1999", result.getRows().get(0)[0]);
+            assertSame(Result.Status.FAIL, client.query("select id from nothing").getStatus());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    void failsOnceDisconnected() throws Exception {
+        WireServer server = new WireServer(new Database(null), 0, 2);
+        server.start();
+        WireClient client = new WireClient("localhost", server.getPort());
+        assertSame(Result.Status.OK, client.query("list tables").getStatus());
+
+        server.close();
+        // Once the server is gone every request fails; none is left waiting
+        Exception failure = null;
+        for (int i = 0; i < 100 && failure == null; i++) {
+            try {
+                client.send("list tables").get(5, TimeUnit.SECONDS);
+                Thread.sleep(10);
+            } catch (IOException | ExecutionException e) {
+                failure = e;
+            }
+        }
+        assertNotNull(failure);
+        Exception later = assertThrows(Exception.class, () -> client.send("list tables").get(5, TimeUnit.SECONDS));
+        assertTrue(!(later instanceof TimeoutException));
+        client.close();
+    }
+
+    @Test
+    void failsOnUnreadableResponse() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            WireClient client = new WireClient("localhost", server.getLocalPort());
+            CompletableFuture<WireResult> result = client.send("list tables");
+            try (Socket socket = server.accept()) {
+                // A response to the request with a status that doesn't exist
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                out.writeInt(9);
+                out.writeLong(1);
+                out.writeByte(99);
+                out.flush();
+
+                ExecutionException failure = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+                assertTrue(failure.getCause() instanceof IOException);
+                assertThrows(IOException.class, () -> client.send("list tables"));
+            }
+            client.close();
+        }
+    }
+}